@@ -19,11 +19,20 @@ package ch.agent.crnickl.demo.geocoord;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import ch.agent.core.KeyedException;
 import ch.agent.crnickl.T2DBException;
 import ch.agent.crnickl.T2DBMsg;
 import ch.agent.crnickl.T2DBMsg.E;
+import ch.agent.crnickl.api.DBObject;
 import ch.agent.crnickl.api.Series;
 import ch.agent.crnickl.api.UpdatableSeries;
 import ch.agent.crnickl.impl.ChronicleUpdatePolicy;
@@ -38,7 +47,45 @@ import ch.agent.t2.timeseries.TimeAddressable;
 
 /**
  * An implementation of {@link ValueAccessMethods} for geographical position data 
- * using {@link GeoCoord}.
+ * using {@link GeoCoord}. Prepared statements are kept in a 
+ * {@link StatementCache} and reused across calls. The cache keeps separate
+ * statements for each thread, so methods can be called from several
+ * threads sharing the connection of the database. Result sets are closed 
+ * before methods return.
+ * <p>
+ * A summary of each series is kept in table 
+ * {@link #TABLE_VALUE_GEOCOORD_SUMMARY}: first and last dates and values, 
+ * number of values, and bounding box. The summary is updated once at the 
+ * end of each write operation which changed something, in the same 
+ * transaction, from the values in the range of dates written. It is only
+ * recomputed from all values of the series when a value on the bounding 
+ * box is removed or moved inside the box, or when the series is truncated.
+ * The range, the first value, the last value, and the bounding box of a 
+ * series are read from the summary with a single-row lookup. 
+ * <p>
+ * The bounding box of each chunk of {@link ChunkedAccessMethodsForGeoCoord#CHUNK_SIZE}
+ * consecutive dates of a series is kept in table {@link #TABLE_VALUE_GEOCOORD_BOX}. 
+ * Boxes of the chunks covered by a write are recomputed from the values at
+ * the end of the write, with one delete and one insert. They are used by 
+ * {@link #findNear} to skip the periods a series spent far from a point.
+ * <p>
+ * The summary and the boxes make single-value writes more expensive: 
+ * {@link #insertOrUpdateValue} and {@link #deleteValue} execute about six 
+ * statements on top of the write, to summarize the date before and after 
+ * the write, to read and update the summary, and to recompute the box of
+ * the chunk, one more when the date is at an end of the series, and a full 
+ * recomputation of the summary when the bounding box could shrink. Bulk 
+ * writes with 
+ * {@link #updateValues(UpdatableSeries, TimeAddressable, ChronicleUpdatePolicy)}
+ * pay this cost once per call.
+ * <p>
+ * A series without a summary row, which is the case of all series in a 
+ * database created before the summary table existed, is read from table
+ * {@link #TABLE_VALUE_GEOCOORD} instead. Results are correct but slower.
+ * The summary and the boxes of a series are created on the next write. 
+ * Such databases should be upgraded with 
+ * <code>sql/HyperSQL_DDL_geocoord_summary.sql</code>, and databases with a
+ * summary but without boxes with <code>sql/HyperSQL_DDL_geocoord_box.sql</code>.
  * 
  * @author Jean-Paul Vetterli
  */
@@ -58,44 +105,134 @@ public class AccessMethodsForGeoCoord extends JDBCDatabaseMethods implements Val
 	 * 
 	 */
 	public static final String TABLE_VALUE_GEOCOORD = "value_geocoord";
+	public static final String TABLE_VALUE_GEOCOORD_SUMMARY = "value_geocoord_summary";
+	public static final String TABLE_VALUE_GEOCOORD_BOX = "value_geocoord_box";
+	
+	/**
+	 * Chunks of boxes have the same size as the chunks of 
+	 * {@link ChunkedAccessMethodsForGeoCoord}.
+	 */
+	private static final int BOX_SHIFT = 6;
+	
+	/**
+	 * The default maximum number of statements in a JDBC batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	
+	/**
+	 * The default number of rows fetched at once when reading into a 
+	 * {@link GeoTrack}.
+	 */
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	
+	/**
+	 * The ways of writing values to the database.
+	 */
+	public enum WriteMode {
+		/**
+		 * One statement per observation. An insert is tried first and an
+		 * update is done when the insert fails.
+		 */
+		SINGLE,
+		/**
+		 * Batches of inserts, updates, and deletes, after reading the values
+		 * already in the database. Unchanged values are not written.
+		 */
+		BATCH,
+		/**
+		 * Batches of MERGE statements and deletes. This mode requires a
+		 * database supporting MERGE, like HyperSQL.
+		 */
+		MERGE
+	}
+	
+	private int batchSize;
+	private WriteMode writeMode;
+	private StatementCache statements;
 
 	/**
 	 * Construct an access method object.
 	 */
 	public AccessMethodsForGeoCoord() {
+		batchSize = DEFAULT_BATCH_SIZE;
+		writeMode = WriteMode.BATCH;
+		statements = new StatementCache(STATEMENT_CACHE_CAPACITY);
+	}
+	
+	/**
+	 * Set the write mode. The default is {@link WriteMode#BATCH}. 
+	 * 
+	 * @param writeMode a write mode
+	 */
+	public void setWriteMode(WriteMode writeMode) {
+		if (writeMode == null)
+			throw new IllegalArgumentException("writeMode null");
+		this.writeMode = writeMode;
+	}
+	
+	/**
+	 * Return the write mode.
+	 * 
+	 * @return the write mode
+	 */
+	public WriteMode getWriteMode() {
+		return writeMode;
+	}
+	
+	/**
+	 * Set the maximum number of statements in a JDBC batch used by
+	 * {@link #updateValues(UpdatableSeries, TimeAddressable, ChronicleUpdatePolicy)}.
+	 * The default is {@link #DEFAULT_BATCH_SIZE}.
+	 * 
+	 * @param batchSize a positive number
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize < 1");
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Return the maximum number of statements in a JDBC batch.
+	 * 
+	 * @return a positive number
+	 */
+	public int getBatchSize() {
+		return batchSize;
 	}
 
-	private PreparedStatement select_range;
 	private static final String SELECT_RANGE = 
-		"select min(date), max(date) from " + TABLE_VALUE_GEOCOORD + " where series = ?";
+		"select first_date, last_date from " + TABLE_VALUE_GEOCOORD_SUMMARY + " where series = ?";
 	@Override
 	public Range getRange(Series<GeoCoord> series) throws T2DBException {
 		Range range = null;
 		TimeDomain timeDomain = series.getTimeDomain();
+		ResultSet rs = null;
 		try {
-			select_range = open(SELECT_RANGE, series, select_range);
-			select_range.setInt(1, getId(series));
-			ResultSet rs = select_range.executeQuery();
-			if (rs.next()) {
+			PreparedStatement stmt = prepare(SELECT_RANGE, series);
+			stmt.setInt(1, getId(series));
+			rs = stmt.executeQuery();
+			if (rs.next())
 				range = new Range(timeDomain.timeFromOffset(rs.getInt(1)), timeDomain.timeFromOffset(rs.getInt(2)));
-				if (rs.wasNull())
-					range = null;
+			else {
+				// no summary: the series is empty or the summary is missing
+				Summary summary = getSummary(series, getId(series), Integer.MIN_VALUE, Integer.MAX_VALUE);
+				if (summary.size > 0)
+					range = new Range(timeDomain.timeFromOffset(summary.firstDate), timeDomain.timeFromOffset(summary.lastDate));
 			}
 		} catch (Exception e) {
 			throw T2DBMsg.exception(e, E.E50122, series.getName(true));
 		} finally {
-			select_range = close(select_range);
+			close(rs);
 		}
 		if (range == null)
 			range = new Range(series.getTimeDomain());
 		return range;
 	}
 	
-	private PreparedStatement select_double_by_range;
 	private static final String SELECT_DOUBLE_BY_RANGE = 
 		"select date, x, y, z from " + TABLE_VALUE_GEOCOORD + 
 		" where series = ? and date between ? and ? order by date";
-	private PreparedStatement select_double;
 	private static final String SELECT_DOUBLE = 
 		"select date, x, y, z from " + TABLE_VALUE_GEOCOORD + " where series = ? order by date";
 	@Override
@@ -103,19 +240,19 @@ public class AccessMethodsForGeoCoord extends JDBCDatabaseMethods implements Val
 		if (range != null && range.isEmpty())
 			return 0;
 		long count = 0;
+		ResultSet rs = null;
 		try {
 			check(Permission.READ, series);
-			ResultSet rs;
 			if (range == null) {
-				select_double = open(SELECT_DOUBLE, series, select_double);
-				select_double.setInt(1, getId(series));
-				rs = select_double.executeQuery();
+				PreparedStatement stmt = prepare(SELECT_DOUBLE, series);
+				stmt.setInt(1, getId(series));
+				rs = stmt.executeQuery();
 			} else {
-				select_double_by_range = open(SELECT_DOUBLE_BY_RANGE, series, select_double_by_range);
-				select_double_by_range.setInt(1, getId(series));
-				select_double_by_range.setInt(2, range.getFirst().asOffset());
-				select_double_by_range.setInt(3, range.getLast().asOffset());
-				rs = select_double_by_range.executeQuery();
+				PreparedStatement stmt = prepare(SELECT_DOUBLE_BY_RANGE, series);
+				stmt.setInt(1, getId(series));
+				stmt.setInt(2, range.getFirst().asOffset());
+				stmt.setInt(3, range.getLast().asOffset());
+				rs = stmt.executeQuery();
 			}
 			while (rs.next()) {
 				GeoCoord coord = new CartesianGeoCoord(rs.getDouble(2), rs.getDouble(3), rs.getDouble(4));
@@ -128,120 +265,536 @@ public class AccessMethodsForGeoCoord extends JDBCDatabaseMethods implements Val
 			else
 				throw T2DBMsg.exception(e, E.E50120, series.getName(true), range.toString());
 		} finally {
-			select_double = close(select_double);
-			select_double_by_range = close(select_double_by_range);
+			close(rs);
+		}
+		return count;
+	}
+	
+	/**
+	 * Read values of a series into a track. The track must be in the time
+	 * domain of the series.
+	 * 
+	 * @param series a series
+	 * @param range a range or null for all values
+	 * @param track a track
+	 * @return the number of values read
+	 * @throws T2DBException
+	 */
+	public long getValues(Series<GeoCoord> series, Range range, GeoTrack track) throws T2DBException {
+		return scanValues(series, range, DEFAULT_FETCH_SIZE, track);
+	}
+	
+	/**
+	 * Read values of a series and pass them to a handler in batches of at
+	 * most <code>fetchSize</code> positions. The fetch size is also passed 
+	 * to the JDBC driver. No {@link GeoCoord} object is created and memory 
+	 * use does not depend on the number of values, which allows to scan long
+	 * series as they are read. With some drivers, results are only streamed
+	 * when auto-commit is off.
+	 * <p>
+	 * The scan uses its own statement, which is not taken from the statement
+	 * cache and is closed when the scan ends. The handler can therefore call
+	 * other methods of this object, including another scan, while rows are
+	 * still being read.
+	 * 
+	 * @param series a series 
+	 * @param range a range or null for all values
+	 * @param fetchSize the maximum number of values in a batch
+	 * @param handler a handler receiving batches
+	 * @return the number of values passed to the handler
+	 * @throws T2DBException
+	 */
+	public long scanValues(Series<GeoCoord> series, Range range, int fetchSize, GeoCoordBatchHandler handler) throws T2DBException {
+		if (fetchSize < 1)
+			throw new IllegalArgumentException("fetchSize < 1");
+		if (range != null && range.isEmpty())
+			return 0;
+		long count = 0;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			check(Permission.READ, series);
+			// not cached: the handler could use the cached statement
+			if (range == null) {
+				stmt = open(SELECT_DOUBLE, series, stmt);
+				stmt.setFetchSize(fetchSize);
+				stmt.setInt(1, getId(series));
+				rs = stmt.executeQuery();
+			} else {
+				stmt = open(SELECT_DOUBLE_BY_RANGE, series, stmt);
+				stmt.setFetchSize(fetchSize);
+				stmt.setInt(1, getId(series));
+				stmt.setInt(2, range.getFirst().asOffset());
+				stmt.setInt(3, range.getLast().asOffset());
+				rs = stmt.executeQuery();
+			}
+			int[] offset = new int[fetchSize];
+			double[] x = new double[fetchSize];
+			double[] y = new double[fetchSize];
+			double[] z = new double[fetchSize];
+			int size = 0;
+			boolean more = true;
+			while (more && rs.next()) {
+				offset[size] = rs.getInt(1);
+				x[size] = rs.getDouble(2);
+				y[size] = rs.getDouble(3);
+				z[size] = rs.getDouble(4);
+				if (++size == fetchSize) {
+					count += size;
+					more = handler.handle(offset, x, y, z, size);
+					size = 0;
+				}
+			}
+			if (more && size > 0) {
+				count += size;
+				handler.handle(offset, x, y, z, size);
+			}
+		} catch (Exception e) {
+			if (range == null)
+				throw T2DBMsg.exception(e, E.E50121, series.getName(true));
+			else
+				throw T2DBMsg.exception(e, E.E50120, series.getName(true), range.toString());
+		} finally {
+			close(rs);
+			stmt = close(stmt);
+		}
+		return count;
+	}
+	
+	/**
+	 * The maximum number of series in a single query of 
+	 * {@link #getValues(List, Range, List)}.
+	 */
+	public static final int MAX_SERIES_PER_QUERY = 256;
+	
+	/**
+	 * The capacity of the statement cache. There is room for all statements
+	 * with a fixed text, and for 5 statements with a list of series ids in 
+	 * each padded size up to {@link #MAX_SERIES_PER_QUERY}: values with and
+	 * without range, summaries, and values near a point with and without
+	 * boxes.
+	 */
+	private static final int STATEMENT_CACHE_CAPACITY = 
+		StatementCache.DEFAULT_CAPACITY + 5 * (Integer.numberOfTrailingZeros(MAX_SERIES_PER_QUERY) + 1);
+	
+	/**
+	 * Read values of many series with a single query for up to
+	 * {@link #MAX_SERIES_PER_QUERY} series, instead of one query per
+	 * series. Rows are read in date order, then series order, and the values
+	 * of each series are put into the corresponding element of the list of
+	 * time series. Series must be distinct.
+	 * <p>
+	 * To keep the number of different statements small, the list of series
+	 * ids of each query is padded to a power of two.
+	 * 
+	 * @param series a list of series
+	 * @param range a range or null for all values
+	 * @param values a list of time series, one for each series
+	 * @return the total number of values read
+	 * @throws T2DBException
+	 */
+	public long getValues(List<? extends Series<GeoCoord>> series, Range range, List<? extends TimeAddressable<GeoCoord>> values) throws T2DBException {
+		if (series.size() != values.size())
+			throw new IllegalArgumentException("series.size() != values.size()");
+		if (series.size() == 0 || range != null && range.isEmpty())
+			return 0;
+		long count = 0;
+		for (int start = 0; start < series.size(); start += MAX_SERIES_PER_QUERY) {
+			int end = Math.min(start + MAX_SERIES_PER_QUERY, series.size());
+			count += getValuesOfSlice(series.subList(start, end), range, values.subList(start, end));
+		}
+		return count;
+	}
+	
+	/**
+	 * Read values of many series into tracks. This is like 
+	 * {@link #getValues(List, Range, List)} but no {@link GeoCoord} object 
+	 * is created.
+	 * 
+	 * @param series a list of series
+	 * @param range a range or null for all values
+	 * @param tracks a list of tracks, one for each series
+	 * @return the total number of values read
+	 * @throws T2DBException
+	 */
+	public long getTracks(List<? extends Series<GeoCoord>> series, Range range, List<GeoTrack> tracks) throws T2DBException {
+		if (series.size() != tracks.size())
+			throw new IllegalArgumentException("series.size() != tracks.size()");
+		if (series.size() == 0 || range != null && range.isEmpty())
+			return 0;
+		long count = 0;
+		for (int start = 0; start < series.size(); start += MAX_SERIES_PER_QUERY) {
+			int end = Math.min(start + MAX_SERIES_PER_QUERY, series.size());
+			count += getValuesOfSlice(series.subList(start, end), range, tracks.subList(start, end));
+		}
+		return count;
+	}
+	
+	/**
+	 * Read values of a slice of series. Targets are time series or tracks.
+	 */
+	@SuppressWarnings("unchecked")
+	private long getValuesOfSlice(List<? extends Series<GeoCoord>> series, Range range, List<?> values) throws T2DBException {
+		long count = 0;
+		ResultSet rs = null;
+		try {
+			Map<Integer, Object> byId = new HashMap<Integer, Object>();
+			int[] ids = new int[series.size()];
+			for (int i = 0; i < ids.length; i++) {
+				check(Permission.READ, series.get(i));
+				ids[i] = getId(series.get(i));
+				byId.put(ids[i], values.get(i));
+			}
+			int size = paddedSize(ids.length);
+			PreparedStatement stmt = prepare(selectDoubleBySeries(size, range != null), series.get(0));
+			int param = setIds(stmt, 1, ids, ids.length, size);
+			if (range != null) {
+				stmt.setInt(param++, range.getFirst().asOffset());
+				stmt.setInt(param++, range.getLast().asOffset());
+			}
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				Object target = byId.get(rs.getInt(1));
+				if (target instanceof GeoTrack)
+					((GeoTrack) target).put(rs.getInt(2), rs.getDouble(3), rs.getDouble(4), rs.getDouble(5));
+				else {
+					TimeAddressable<GeoCoord> ts = (TimeAddressable<GeoCoord>) target;
+					GeoCoord coord = new CartesianGeoCoord(rs.getDouble(3), rs.getDouble(4), rs.getDouble(5));
+					ts.put(ts.getTimeDomain().timeFromOffset(rs.getInt(2)), coord);
+				}
+				count++;
+			}
+		} catch (Exception e) {
+			if (range == null)
+				throw T2DBMsg.exception(e, E.E50121, series.get(0).getName(true));
+			else
+				throw T2DBMsg.exception(e, E.E50120, series.get(0).getName(true), range.toString());
+		} finally {
+			close(rs);
 		}
 		return count;
 	}
 	
-	private PreparedStatement select_first_double1;
+	private String selectDoubleBySeries(int size, boolean range) {
+		StringBuilder sql = new StringBuilder("select series, date, x, y, z from " + TABLE_VALUE_GEOCOORD + 
+				" where series in " + inList(size));
+		if (range)
+			sql.append(" and date between ? and ?");
+		sql.append(" order by date, series");
+		return sql.toString();
+	}
+	
+	/**
+	 * Return a list of n parameter markers in parentheses.
+	 */
+	private String inList(int n) {
+		StringBuilder list = new StringBuilder("(?");
+		for (int i = 1; i < n; i++)
+			list.append(", ?");
+		return list.append(")").toString();
+	}
+	
+	/**
+	 * Return the smallest power of two not less than n.
+	 */
+	private int paddedSize(int n) {
+		int size = Integer.highestOneBit(n);
+		return size < n ? size << 1 : size;
+	}
+	
+	/**
+	 * Set ids as parameters, padding with the last id.
+	 * 
+	 * @return the index of the next parameter
+	 */
+	private int setIds(PreparedStatement stmt, int param, int[] ids, int count, int size) throws SQLException {
+		for (int i = 0; i < size; i++)
+			stmt.setInt(param++, ids[Math.min(i, count - 1)]);
+		return param;
+	}
+	
+	/**
+	 * Find when the positions of a list of series were not farther than a 
+	 * distance from a point. The search is done in four steps:
+	 * <ol>
+	 * <li>series are pruned using the bounding boxes and the ranges in the 
+	 * summaries, series without a summary are kept,
+	 * <li>chunks of the remaining series are pruned using the boxes in 
+	 * {@link #TABLE_VALUE_GEOCOORD_BOX},
+	 * <li>values of the remaining chunks are read, with the database 
+	 * filtering out values outside a cube around the point,
+	 * <li>the distance of each value read is checked exactly.
+	 * </ol>
+	 * Steps 2 and 3 are done with a single query. Series are processed in 
+	 * groups of {@link #MAX_SERIES_PER_QUERY}, with two queries per group,
+	 * and one more when some series have no summary. Hits are returned in 
+	 * time order.
+	 * <p>
+	 * Table {@link #TABLE_VALUE_GEOCOORD} has no index on coordinates, so 
+	 * values are read by chunk: the database reads all values of the chunks
+	 * whose box is near the point, and only the cube reduces the rows 
+	 * returned and checked. All values in the range of a series without a 
+	 * summary are read.
+	 * 
+	 * @param series a list of series
+	 * @param point a point
+	 * @param radius a distance in meters
+	 * @param range a range or null for all values
+	 * @return a list of hits
+	 * @throws T2DBException
+	 */
+	public List<GeoHit> findNear(List<? extends Series<GeoCoord>> series, CartesianGeoCoord point, double radius, Range range) throws T2DBException {
+		if (radius < 0)
+			throw new IllegalArgumentException("radius < 0");
+		List<GeoHit> hits = new ArrayList<GeoHit>();
+		if (range != null && range.isEmpty())
+			return hits;
+		for (int start = 0; start < series.size(); start += MAX_SERIES_PER_QUERY) {
+			int end = Math.min(start + MAX_SERIES_PER_QUERY, series.size());
+			findNear(series.subList(start, end), point, radius, range, hits);
+		}
+		if (series.size() > MAX_SERIES_PER_QUERY)
+			Collections.sort(hits, GeoHit.TIME_ORDER);
+		return hits;
+	}
+	
+	private static final String SELECT_SUMMARIES = 
+		"select series, first_date, last_date, min_x, max_x, min_y, max_y, min_z, max_z from " + 
+		TABLE_VALUE_GEOCOORD_SUMMARY + " where series in ";
+	private static final String SELECT_NEAR = 
+		"select series, date, x, y, z from " + TABLE_VALUE_GEOCOORD + 
+		" where date between ? and ? and x between ? and ? and y between ? and ? and z between ? and ?" + 
+		" and series in ";
+	private static final String SELECT_NEAR_BY_BOX = 
+		"select v.series, v.date, v.x, v.y, v.z from " + TABLE_VALUE_GEOCOORD_BOX + " b join " + 
+		TABLE_VALUE_GEOCOORD + " v on v.series = b.series and v.date between b.first_date and b.last_date" + 
+		" where b.last_date >= ? and b.first_date <= ? and b.max_x >= ? and b.min_x <= ?" +
+		" and b.max_y >= ? and b.min_y <= ? and b.max_z >= ? and b.min_z <= ?" + 
+		" and v.date between ? and ? and v.x between ? and ? and v.y between ? and ? and v.z between ? and ?" + 
+		" and b.series in ";
+	private void findNear(List<? extends Series<GeoCoord>> series, CartesianGeoCoord point, double radius, Range range, List<GeoHit> hits) throws T2DBException {
+		ResultSet rs = null;
+		try {
+			int first = range == null ? Integer.MIN_VALUE : range.getFirst().asOffset();
+			int last = range == null ? Integer.MAX_VALUE : range.getLast().asOffset();
+			Map<Integer, Series<GeoCoord>> byId = new HashMap<Integer, Series<GeoCoord>>();
+			int[] ids = new int[series.size()];
+			for (int i = 0; i < ids.length; i++) {
+				check(Permission.READ, series.get(i));
+				ids[i] = getId(series.get(i));
+				byId.put(ids[i], series.get(i));
+			}
+			// prune series
+			int size = paddedSize(ids.length);
+			PreparedStatement stmt = prepare(SELECT_SUMMARIES + inList(size), series.get(0));
+			setIds(stmt, 1, ids, ids.length, size);
+			rs = stmt.executeQuery();
+			Set<Integer> summarized = new HashSet<Integer>();
+			Set<Integer> pruned = new HashSet<Integer>();
+			while (rs.next()) {
+				GeoBox box = new GeoBox(rs.getDouble(4), rs.getDouble(5), rs.getDouble(6), rs.getDouble(7), rs.getDouble(8), rs.getDouble(9));
+				summarized.add(rs.getInt(1));
+				if (rs.getInt(2) > last || rs.getInt(3) < first || !box.isNear(point, radius))
+					pruned.add(rs.getInt(1));
+			}
+			rs.close();
+			// series without summary are kept, but have no boxes
+			int[] boxed = new int[ids.length];
+			int boxedCount = 0;
+			int count = 0;
+			for (int i = 0; i < ids.length; i++) {
+				if (pruned.contains(ids[i]))
+					continue;
+				if (summarized.contains(ids[i]))
+					boxed[boxedCount++] = ids[i];
+				else
+					ids[count++] = ids[i];
+			}
+			int hitCount = hits.size();
+			if (boxedCount > 0) {
+				// prune chunks and prefilter values in the database
+				size = paddedSize(boxedCount);
+				stmt = prepare(SELECT_NEAR_BY_BOX + inList(size) + " order by v.date, v.series", series.get(0));
+				int param = setNearParameters(stmt, 1, point, radius, first, last);
+				param = setNearParameters(stmt, param, point, radius, first, last);
+				setIds(stmt, param, boxed, boxedCount, size);
+				rs = stmt.executeQuery();
+				readNear(rs, point, radius, byId, hits);
+				rs.close();
+			}
+			if (count > 0) {
+				// prefilter values in the database
+				size = paddedSize(count);
+				stmt = prepare(SELECT_NEAR + inList(size) + " order by date, series", series.get(0));
+				int param = setNearParameters(stmt, 1, point, radius, first, last);
+				setIds(stmt, param, ids, count, size);
+				rs = stmt.executeQuery();
+				readNear(rs, point, radius, byId, hits);
+				if (boxedCount > 0)
+					Collections.sort(hits.subList(hitCount, hits.size()), GeoHit.TIME_ORDER);
+			}
+		} catch (Exception e) {
+			if (range == null)
+				throw T2DBMsg.exception(e, E.E50121, series.get(0).getName(true));
+			else
+				throw T2DBMsg.exception(e, E.E50120, series.get(0).getName(true), range.toString());
+		} finally {
+			close(rs);
+		}
+	}
+	
+	/**
+	 * Set the range and the cube around a point as parameters.
+	 * 
+	 * @return the index of the next parameter
+	 */
+	private int setNearParameters(PreparedStatement stmt, int param, CartesianGeoCoord point, double radius, int first, int last) throws SQLException {
+		stmt.setInt(param++, first);
+		stmt.setInt(param++, last);
+		stmt.setDouble(param++, point.getX() - radius);
+		stmt.setDouble(param++, point.getX() + radius);
+		stmt.setDouble(param++, point.getY() - radius);
+		stmt.setDouble(param++, point.getY() + radius);
+		stmt.setDouble(param++, point.getZ() - radius);
+		stmt.setDouble(param++, point.getZ() + radius);
+		return param;
+	}
+	
+	/**
+	 * Check exactly the distance of values read and add hits.
+	 */
+	private void readNear(ResultSet rs, CartesianGeoCoord point, double radius, Map<Integer, Series<GeoCoord>> byId, List<GeoHit> hits) throws Exception {
+		double r2 = radius * radius;
+		while (rs.next()) {
+			double dx = rs.getDouble(3) - point.getX();
+			double dy = rs.getDouble(4) - point.getY();
+			double dz = rs.getDouble(5) - point.getZ();
+			double d2 = dx * dx + dy * dy + dz * dz;
+			if (d2 <= r2) {
+				Series<GeoCoord> s = byId.get(rs.getInt(1));
+				hits.add(new GeoHit(s, s.getTimeDomain().timeFromOffset(rs.getInt(2)), Math.sqrt(d2)));
+			}
+		}
+	}
+	
 	private static final String SELECT_FIRST_DOUBLE_1 = 
-		"select date, x, y, z from " +  TABLE_VALUE_GEOCOORD + " where series = ? and date = " + 
-		"(select min(date) from " + TABLE_VALUE_GEOCOORD + " where series = ? and date >= ?)" ;
-	private PreparedStatement select_first_double2;
+		"select date, x, y, z from " +  TABLE_VALUE_GEOCOORD + " where series = ? and date >= ? order by date";
 	private static final String SELECT_FIRST_DOUBLE_2 = 
-		"select date, x, y, z from " +  TABLE_VALUE_GEOCOORD + " where series = ? and date = " + 
-		"(select min(date) from " + TABLE_VALUE_GEOCOORD + " where series = ?)" ;
+		"select first_date, first_x, first_y, first_z from " +  TABLE_VALUE_GEOCOORD_SUMMARY + " where series = ?";
 	@Override
 	public Observation<GeoCoord> getFirst(Series<GeoCoord> series, TimeIndex time) throws T2DBException {
 		Observation<GeoCoord> obs = null;
+		ResultSet rs = null;
 		try {
 			check(Permission.READ, series);
-			ResultSet rs;
 			int sid = getId(series);
-			if (time != null) {
-				select_first_double1 = open(SELECT_FIRST_DOUBLE_1, series, select_first_double1);
-				select_first_double1.setInt(1, sid);
-				select_first_double1.setInt(2, sid);
-				select_first_double1.setInt(3, time.asOffset());
-				rs = select_first_double1.executeQuery();
-			} else {
-				select_first_double2 = open(SELECT_FIRST_DOUBLE_2, series, select_first_double2);
-				select_first_double2.setInt(1, sid);
-				select_first_double2.setInt(2, sid);
-				rs = select_first_double2.executeQuery();
+			boolean found = false;
+			if (time == null) {
+				PreparedStatement stmt = prepare(SELECT_FIRST_DOUBLE_2, series);
+				stmt.setInt(1, sid);
+				rs = stmt.executeQuery();
+				found = rs.next();
+				// no summary: the series is empty or the summary is missing
+				if (!found)
+					close(rs);
+			}
+			if (!found) {
+				PreparedStatement stmt = prepare(SELECT_FIRST_DOUBLE_1, series);
+				stmt.setMaxRows(1);
+				stmt.setInt(1, sid);
+				stmt.setInt(2, time == null ? Integer.MIN_VALUE : time.asOffset());
+				rs = stmt.executeQuery();
+				found = rs.next();
 			}
-			if (rs.next()) {
+			if (found) {
 				TimeDomain dom = time == null ? series.getTimeDomain() : time.getTimeDomain();
 				TimeIndex t = dom.timeFromOffset(rs.getInt(1));
 				GeoCoord coord = new CartesianGeoCoord(rs.getDouble(2), rs.getDouble(3), rs.getDouble(4));
 				obs = new Observation<GeoCoord>(t, coord);
 			}
 		} catch (Exception e) {
-				throw T2DBMsg.exception(e, E.E50123, series.getName(true), time.toString());
+				throw T2DBMsg.exception(e, E.E50123, series.getName(true), String.valueOf(time));
 		} finally {
-			select_first_double1 = close(select_first_double1);
-			select_first_double2 = close(select_first_double2);
+			close(rs);
 		}
 		return obs;
 	}
 	
-	private PreparedStatement select_last_double1;
 	private static final String SELECT_LAST_DOUBLE_1 = 
-		"select date, x, y, z from " +  TABLE_VALUE_GEOCOORD + " where series = ? and date = " + 
-		"(select max(date) from " + TABLE_VALUE_GEOCOORD + " where series = ? and date <= ?)" ;
-	private PreparedStatement select_last_double2;
+		"select date, x, y, z from " +  TABLE_VALUE_GEOCOORD + " where series = ? and date <= ? order by date desc";
 	private static final String SELECT_LAST_DOUBLE_2 = 
-		"select date, x, y, z from " +  TABLE_VALUE_GEOCOORD + " where series = ? and date = " + 
-		"(select max(date) from " + TABLE_VALUE_GEOCOORD + " where series = ?)" ;
+		"select last_date, last_x, last_y, last_z from " +  TABLE_VALUE_GEOCOORD_SUMMARY + " where series = ?";
 	@Override
 	public Observation<GeoCoord> getLast(Series<GeoCoord> series, TimeIndex time) throws T2DBException {
 		Observation<GeoCoord> obs = null;
+		ResultSet rs = null;
 		try {
 			check(Permission.READ, series);
-			ResultSet rs;
 			int sid = getId(series);
-			if (time != null) {
-				select_last_double1 = open(SELECT_LAST_DOUBLE_1, series, select_last_double1);
-				select_last_double1.setInt(1, sid);
-				select_last_double1.setInt(2, sid);
-				select_last_double1.setInt(3, time.asOffset());
-				rs = select_last_double1.executeQuery();
-			} else {
-				select_last_double2 = open(SELECT_LAST_DOUBLE_2, series, select_last_double2);
-				select_last_double2.setInt(1, sid);
-				select_last_double2.setInt(2, sid);
-				rs = select_last_double2.executeQuery();
+			boolean found = false;
+			if (time == null) {
+				PreparedStatement stmt = prepare(SELECT_LAST_DOUBLE_2, series);
+				stmt.setInt(1, sid);
+				rs = stmt.executeQuery();
+				found = rs.next();
+				// no summary: the series is empty or the summary is missing
+				if (!found)
+					close(rs);
 			}
-			if (rs.next()) {
+			if (!found) {
+				PreparedStatement stmt = prepare(SELECT_LAST_DOUBLE_1, series);
+				stmt.setMaxRows(1);
+				stmt.setInt(1, sid);
+				stmt.setInt(2, time == null ? Integer.MAX_VALUE : time.asOffset());
+				rs = stmt.executeQuery();
+				found = rs.next();
+			}
+			if (found) {
 				TimeDomain dom = time == null ? series.getTimeDomain() : time.getTimeDomain();
 				TimeIndex t = dom.timeFromOffset(rs.getInt(1));
 				GeoCoord coord = new CartesianGeoCoord(rs.getDouble(2), rs.getDouble(3), rs.getDouble(4));
 				obs = new Observation<GeoCoord>(t, coord);
 			}
 		} catch (Exception e) {
-				throw T2DBMsg.exception(e, E.E50124, series.getName(true), time.toString());
+				throw T2DBMsg.exception(e, E.E50124, series.getName(true), String.valueOf(time));
 		} finally {
-			select_last_double1 = close(select_last_double1);
-			select_last_double2 = close(select_last_double2);
+			close(rs);
 		}
 		return obs;
 	}
 
-	private PreparedStatement delete_values_by_t; 
 	private static final String DELETE_VALUES_BY_T = 
 		"delete from " + TABLE_VALUE_GEOCOORD + " where series = ? and date = ?";
 	@Override
 	public boolean deleteValue(UpdatableSeries<GeoCoord> series, TimeIndex t, ChronicleUpdatePolicy policy) throws T2DBException {
+		int offset = t.asOffset();
+		Summary before = getSummary(series, offset, offset);
+		boolean done = removeValue(series, t, policy);
+		if (done)
+			updateSummary(series, offset, offset, before);
+		return done;
+	}
+	
+	/**
+	 * Delete a value without updating the summary.
+	 */
+	private boolean removeValue(UpdatableSeries<GeoCoord> series, TimeIndex t, ChronicleUpdatePolicy policy) throws T2DBException {
 		boolean done = false;
 		try {
 			check(Permission.MODIFY, series);
 			policy.willDelete(series, t);
 			policy.deleteValue(series, t);
-			delete_values_by_t = open(DELETE_VALUES_BY_T, series, delete_values_by_t);
-			delete_values_by_t.setInt(1, getId(series));
-			delete_values_by_t.setInt(2, t.asOffset());
-			delete_values_by_t.execute();
-			done = delete_values_by_t.getUpdateCount() > 0;
+			PreparedStatement stmt = prepare(DELETE_VALUES_BY_T, series);
+			stmt.setInt(1, getId(series));
+			stmt.setInt(2, t.asOffset());
+			stmt.execute();
+			done = stmt.getUpdateCount() > 0;
 		} catch (Exception e) {
 			throw T2DBMsg.exception(e, E.E50113, series.getName(true), t.toString());
-		} finally {
-			delete_values_by_t = close(delete_values_by_t);
 		}
 		return done;
 	}
 	
-	private PreparedStatement update_series_range;
 	private static final String UPDATE_SERIES_RANGE = 
 		"delete from " + TABLE_VALUE_GEOCOORD + " where series = ? and (date < ? or date > ?)";
 	@Override
@@ -258,26 +811,28 @@ public class AccessMethodsForGeoCoord extends JDBCDatabaseMethods implements Val
 			check(Permission.MODIFY, series);
 			policy.willUpdate(series, range);
 			done = policy.update(series, range);
-			update_series_range = open(UPDATE_SERIES_RANGE, series, update_series_range);
-			update_series_range.setInt(1, id);
-			update_series_range.setInt(2, first);
-			update_series_range.setInt(3, last);
-			update_series_range.execute();
-			if (update_series_range.getUpdateCount() > 0)
+			PreparedStatement stmt = prepare(UPDATE_SERIES_RANGE, series);
+			stmt.setInt(1, id);
+			stmt.setInt(2, first);
+			stmt.setInt(3, last);
+			stmt.execute();
+			if (stmt.getUpdateCount() > 0) {
 				done = true;
+				// the first or the last value was deleted
+				rebuildSummary(series, id);
+				truncateBoxes(series, id, first, last);
+			}
 		} catch (Exception e) {
 			throw T2DBMsg.exception(e, E.E50109, series.getName(true));
-		} finally {
-			update_series_range = close(update_series_range);
 		}
 		return done;
 	}
 	
-	private PreparedStatement insert_value;
 	private static final String INSERT_VALUE = 
 		"insert into " + TABLE_VALUE_GEOCOORD + " (series, date, x, y, z) values(?, ?, ?, ?, ?)";
 	/**
 	 * An IllegalArgumentException is thrown if the observation's value is null or a NaN.
+	 * In {@link WriteMode#MERGE} mode, a single MERGE statement is used.
 	 * @param series a series 
 	 * @param obs an observation
 	 * @param policy a policy
@@ -285,31 +840,42 @@ public class AccessMethodsForGeoCoord extends JDBCDatabaseMethods implements Val
 	 * @throws T2DBException
 	 */
 	public boolean insertOrUpdateValue(UpdatableSeries<GeoCoord> series, Observation<GeoCoord> obs, ChronicleUpdatePolicy policy) throws T2DBException {
+		int offset = obs.getTime().asOffset();
+		Summary before = getSummary(series, offset, offset);
+		boolean done = writeValue(series, obs, policy);
+		if (done)
+			updateSummary(series, offset, offset, before);
+		return done;
+	}
+	
+	/**
+	 * Insert or update a value without updating the summary.
+	 */
+	private boolean writeValue(UpdatableSeries<GeoCoord> series, Observation<GeoCoord> obs, ChronicleUpdatePolicy policy) throws T2DBException {
 		boolean done = false;
 		CartesianGeoCoord coord = asCartesian(obs.getValue());
 		if (coord == null)
 			throw new IllegalArgumentException("value null");
+		if (writeMode == WriteMode.MERGE)
+			return mergeValue(series, obs, coord);
 		try {
 			check(Permission.MODIFY, series);
-			insert_value = open(INSERT_VALUE, series, insert_value);
-			insert_value.setInt(1, getId(series));
-			insert_value.setInt(2, obs.getTime().asOffset());
-			insert_value.setDouble(3, coord.getX());
-			insert_value.setDouble(4, coord.getY());
-			insert_value.setDouble(5, coord.getZ());
-			insert_value.execute();
-			done = insert_value.getUpdateCount() > 0;
+			PreparedStatement stmt = prepare(INSERT_VALUE, series);
+			stmt.setInt(1, getId(series));
+			stmt.setInt(2, obs.getTime().asOffset());
+			stmt.setDouble(3, coord.getX());
+			stmt.setDouble(4, coord.getY());
+			stmt.setDouble(5, coord.getZ());
+			stmt.execute();
+			done = stmt.getUpdateCount() > 0;
 		} catch (SQLException e) {
 			done = updateValue(e, series, obs, policy);
 		} catch (KeyedException e) {
 			throw T2DBMsg.exception(e, E.E50110, series.getName(true), obs.getTime().toString());
-		} finally {
-			insert_value = close(insert_value);
 		}
 		return done;
 	}
 	
-	private PreparedStatement update_value;
 	private static final String UPDATE_VALUE = 
 		"update " + TABLE_VALUE_GEOCOORD + " set x = ?, y = ?, z = ? where series = ? and date = ? and (x != ? or y != ? or z != ?)";
 	private boolean updateValue(SQLException originalException, UpdatableSeries<GeoCoord> series, Observation<GeoCoord> obs, ChronicleUpdatePolicy policy) throws T2DBException {
@@ -317,40 +883,806 @@ public class AccessMethodsForGeoCoord extends JDBCDatabaseMethods implements Val
 		CartesianGeoCoord coord = asCartesian(obs.getValue());
 		try {
 			check(Permission.MODIFY, series);
-			update_value = open(UPDATE_VALUE, series, update_value);
-			update_value.setDouble(1, coord.getX());
-			update_value.setDouble(2, coord.getY());
-			update_value.setDouble(3, coord.getZ());
-			update_value.setInt(4, getId(series));
-			update_value.setInt(5, obs.getTime().asOffset());
-			update_value.setDouble(6, coord.getX());
-			update_value.setDouble(7, coord.getY());
-			update_value.setDouble(8, coord.getZ());
-			update_value.execute();
-			done = update_value.getUpdateCount() > 0;
+			PreparedStatement stmt = prepare(UPDATE_VALUE, series);
+			stmt.setDouble(1, coord.getX());
+			stmt.setDouble(2, coord.getY());
+			stmt.setDouble(3, coord.getZ());
+			stmt.setInt(4, getId(series));
+			stmt.setInt(5, obs.getTime().asOffset());
+			stmt.setDouble(6, coord.getX());
+			stmt.setDouble(7, coord.getY());
+			stmt.setDouble(8, coord.getZ());
+			stmt.execute();
+			done = stmt.getUpdateCount() > 0;
 		} catch (Exception e) {
 			throw T2DBMsg.exception(originalException, E.E50110, series.getName(true), obs.getTime().toString());
-		} finally {
-			update_value = close(update_value);
 		}
 		return done;
 	}
 	
+	private static final String MERGE_VALUE = 
+		"merge into " + TABLE_VALUE_GEOCOORD + " v using (select * from " +
+		"(values(cast(? as int), cast(? as int), cast(? as double), cast(? as double), cast(? as double))) " +
+		"as n(series, date, x, y, z) where not exists (select 1 from " + TABLE_VALUE_GEOCOORD + 
+		" o where o.series = n.series and o.date = n.date and o.x = n.x and o.y = n.y and o.z = n.z)) as n " +
+		"on v.series = n.series and v.date = n.date " +
+		"when matched then update set v.x = n.x, v.y = n.y, v.z = n.z " +
+		"when not matched then insert (series, date, x, y, z) values (n.series, n.date, n.x, n.y, n.z)";
+	/**
+	 * Insert or update a value with a single MERGE statement. Like 
+	 * {@link #updateValue}, an update which would not change anything is 
+	 * not done. Rows already holding the value are filtered out of the
+	 * source of the merge.
+	 */
+	private boolean mergeValue(UpdatableSeries<GeoCoord> series, Observation<GeoCoord> obs, CartesianGeoCoord coord) throws T2DBException {
+		boolean done = false;
+		try {
+			check(Permission.MODIFY, series);
+			PreparedStatement stmt = prepare(MERGE_VALUE, series);
+			setMergeParameters(stmt, getId(series), obs.getTime().asOffset(), coord.getX(), coord.getY(), coord.getZ());
+			stmt.execute();
+			done = stmt.getUpdateCount() > 0;
+		} catch (Exception e) {
+			throw T2DBMsg.exception(e, E.E50110, series.getName(true), obs.getTime().toString());
+		}
+		return done;
+	}
+	
+	private void setMergeParameters(PreparedStatement stmt, int id, int t, double x, double y, double z) throws SQLException {
+		stmt.setInt(1, id);
+		stmt.setInt(2, t);
+		stmt.setDouble(3, x);
+		stmt.setDouble(4, y);
+		stmt.setDouble(5, z);
+	}
+	
+	/**
+	 * Update values as specified by the write mode.
+	 * <p>
+	 * In {@link WriteMode#BATCH} mode, values already in the database are
+	 * read first, in a single query over the range of the values, and
+	 * compared in memory with the new values. Only values inserted, changed,
+	 * or deleted are written, grouped into inserts, updates, and deletes, each
+	 * executed in batches of at most {@link #getBatchSize()} statements. 
+	 * Writing again values which are all unchanged costs a single read. 
+	 * When a few values change, this costs one read of the range, a few 
+	 * writes, and a few single-row statements to update the summary, as long
+	 * as no value on the bounding box of the series is removed. In 
+	 * {@link WriteMode#MERGE} mode, stored values are not read, but the 
+	 * range is summarized before and after writing, and inserts and updates
+	 * are done with batches of MERGE statements.
+	 * <p>
+	 * Consecutive deletes are merged into runs, each deleted with a single
+	 * ranged statement. A run never covers a value which is not deleted: in
+	 * {@link WriteMode#BATCH} mode, it spans consecutive stored values, and
+	 * in {@link WriteMode#MERGE} mode, consecutive time domain offsets. The
+	 * policy is still notified of each deleted value.
+	 * In all modes, updates which would not change anything are not counted,
+	 * and the summary is updated once at the end. In {@link WriteMode#BATCH}
+	 * mode, the summary of the range before writing is taken from the values
+	 * already read.
+	 * <p>
+	 * An IllegalArgumentException is thrown if a value is null.
+	 */
 	@Override
 	public long updateValues(UpdatableSeries<GeoCoord> series, TimeAddressable<GeoCoord> values, ChronicleUpdatePolicy policy) throws T2DBException {
+		Range range = values.getRange();
+		if (range.isEmpty())
+			return 0;
+		int first = range.getFirst().asOffset();
+		int last = range.getLast().asOffset();
+		if (writeMode == WriteMode.SINGLE) {
+			Summary before = getSummary(series, first, last);
+			long count = 0;
+			for(Observation<GeoCoord> obs : values) {
+				boolean done = false;
+				if (values.isMissing(obs.getValue()))
+					done = removeValue(series, obs.getTime(), policy);
+				else
+					done = writeValue(series, obs, policy);
+				if (done)
+					count++;
+			}
+			if (count > 0)
+				updateSummary(series, first, last, before);
+			return count;
+		}
+		boolean merge = writeMode == WriteMode.MERGE;
 		long count = 0;
-		for(Observation<GeoCoord> obs : values) {
-			boolean done = false;
-			if (values.isMissing(obs.getValue()))
-				done = deleteValue(series, obs.getTime(), policy);
-			else
-				done = insertOrUpdateValue(series, obs, policy);
-			if (done)
-				count++;
+		ValueWriter writer = null;
+		PreparedStatement deleteStmt = null;
+		try {
+			check(Permission.MODIFY, series);
+			int id = getId(series);
+			GeoTrack stored = merge ? null : getStoredValues(series, id, first, last);
+			Summary before = merge ? getSummary(series, id, first, last) : summarize(stored);
+			writer = new ValueWriter(series, id, stored);
+			deleteStmt = prepare(DELETE_VALUES_BY_RANGE, series);
+			int deletes = 0;
+			// current run of deletes
+			boolean run = false;
+			int runFirst = 0;
+			int runLast = 0;
+			int runIndex = 0;
+			for(Observation<GeoCoord> obs : values) {
+				int t = obs.getTime().asOffset();
+				// in merge mode, existence is not known and not needed
+				int i = merge ? -1 : stored.indexOf(t);
+				boolean exists = merge || i >= 0;
+				if (values.isMissing(obs.getValue())) {
+					policy.willDelete(series, obs.getTime());
+					policy.deleteValue(series, obs.getTime());
+					if (!exists)
+						continue;
+					// a run must not include values not deleted
+					if (run && (merge ? t == runLast + 1 : i == runIndex + 1)) {
+						runLast = t;
+						runIndex = i;
+						continue;
+					}
+					if (run) {
+						addDeleteRange(deleteStmt, id, runFirst, runLast);
+						if (++deletes == batchSize) {
+							count += executeBatchRows(deleteStmt);
+							deletes = 0;
+						}
+					}
+					run = true;
+					runFirst = t;
+					runLast = t;
+					runIndex = i;
+				} else {
+					if (run) {
+						addDeleteRange(deleteStmt, id, runFirst, runLast);
+						if (++deletes == batchSize) {
+							count += executeBatchRows(deleteStmt);
+							deletes = 0;
+						}
+						run = false;
+					}
+					CartesianGeoCoord coord = asCartesian(obs.getValue());
+					if (coord == null)
+						throw new IllegalArgumentException("value null");
+					writer.write(t, i, coord.getX(), coord.getY(), coord.getZ());
+				}
+			}
+			count += writer.flush();
+			if (run) {
+				addDeleteRange(deleteStmt, id, runFirst, runLast);
+				deletes++;
+			}
+			if (deletes > 0)
+				count += executeBatchRows(deleteStmt);
+			if (count > 0)
+				updateSummary(series, id, first, last, before);
+		} catch (IllegalArgumentException e) {
+			throw e;
+		} catch (Exception e) {
+			throw T2DBMsg.exception(e, E.E50110, series.getName(true), range.toString());
+		} finally {
+			// cached statements must not keep batches which failed
+			if (writer != null)
+				writer.clear();
+			clearBatch(deleteStmt);
+		}
+		return count;
+	}
+	
+	/**
+	 * Insert or update the values of a track. The track must be in the time
+	 * domain of the series. This is like 
+	 * {@link #updateValues(UpdatableSeries, TimeAddressable, ChronicleUpdatePolicy)}
+	 * but no {@link GeoCoord} object is created. A track has no missing 
+	 * values, so nothing is deleted and no update policy is needed. In 
+	 * {@link WriteMode#SINGLE} mode, values are written like in 
+	 * {@link WriteMode#BATCH} mode.
+	 * 
+	 * @param series a series
+	 * @param track a track
+	 * @return the number of values inserted or changed
+	 * @throws T2DBException
+	 */
+	public long updateValues(UpdatableSeries<GeoCoord> series, GeoTrack track) throws T2DBException {
+		int size = track.size();
+		if (size == 0)
+			return 0;
+		int first = track.getOffset(0);
+		int last = track.getOffset(size - 1);
+		if (!track.getTimeDomain().equals(series.getTimeDomain()))
+			throw new IllegalArgumentException("track not in time domain of series");
+		boolean merge = writeMode == WriteMode.MERGE;
+		long count = 0;
+		Range range = null;
+		ValueWriter writer = null;
+		try {
+			range = new Range(track.getTimeDomain().timeFromOffset(first), track.getTimeDomain().timeFromOffset(last));
+			check(Permission.MODIFY, series);
+			int id = getId(series);
+			GeoTrack stored = merge ? null : getStoredValues(series, id, first, last);
+			Summary before = merge ? getSummary(series, id, first, last) : summarize(stored);
+			writer = new ValueWriter(series, id, stored);
+			for (int i = 0; i < size; i++) {
+				int t = track.getOffset(i);
+				writer.write(t, merge ? -1 : stored.indexOf(t), track.getX(i), track.getY(i), track.getZ(i));
+			}
+			count = writer.flush();
+			if (count > 0)
+				updateSummary(series, id, first, last, before);
+		} catch (Exception e) {
+			throw T2DBMsg.exception(e, E.E50110, series.getName(true), String.valueOf(range));
+		} finally {
+			// cached statements must not keep batches which failed
+			if (writer != null)
+				writer.clear();
 		}
 		return count;
 	}
 	
+	/**
+	 * A ValueWriter adds the values written by a bulk operation to batches
+	 * and executes batches when they are full. Without stored values, values
+	 * are merged. With stored values, values not stored are inserted, 
+	 * values stored are updated, and unchanged values are skipped.
+	 */
+	private class ValueWriter {
+		private final int id;
+		private final GeoTrack stored;
+		private final PreparedStatement insert;
+		private final PreparedStatement update;
+		private final PreparedStatement merge;
+		private int inserts;
+		private int updates;
+		private long count;
+		
+		/**
+		 * Construct a value writer.
+		 * 
+		 * @param series the series
+		 * @param id the series id
+		 * @param stored the values stored in the range written or null to merge
+		 * @throws Exception
+		 */
+		private ValueWriter(Series<GeoCoord> series, int id, GeoTrack stored) throws Exception {
+			this.id = id;
+			this.stored = stored;
+			if (stored == null) {
+				merge = prepare(MERGE_VALUE, series);
+				insert = null;
+				update = null;
+			} else {
+				merge = null;
+				insert = prepare(INSERT_VALUE, series);
+				update = prepare(UPDATE_VALUE, series);
+			}
+		}
+		
+		/**
+		 * Write a value.
+		 * 
+		 * @param t a time domain offset
+		 * @param i the index of the stored value, negative if not stored
+		 * @param x the x coordinate
+		 * @param y the y coordinate
+		 * @param z the z coordinate
+		 * @throws SQLException
+		 */
+		private void write(int t, int i, double x, double y, double z) throws SQLException {
+			if (stored == null) {
+				setMergeParameters(merge, id, t, x, y, z);
+				merge.addBatch();
+				if (++updates == batchSize) {
+					count += executeBatch(merge);
+					updates = 0;
+				}
+			} else if (i >= 0 && stored.getX(i) == x && stored.getY(i) == y && stored.getZ(i) == z) {
+				// unchanged, nothing to write
+			} else if (i >= 0) {
+				update.setDouble(1, x);
+				update.setDouble(2, y);
+				update.setDouble(3, z);
+				update.setInt(4, id);
+				update.setInt(5, t);
+				update.setDouble(6, x);
+				update.setDouble(7, y);
+				update.setDouble(8, z);
+				update.addBatch();
+				if (++updates == batchSize) {
+					count += executeBatch(update);
+					updates = 0;
+				}
+			} else {
+				insert.setInt(1, id);
+				insert.setInt(2, t);
+				insert.setDouble(3, x);
+				insert.setDouble(4, y);
+				insert.setDouble(5, z);
+				insert.addBatch();
+				if (++inserts == batchSize) {
+					count += executeBatch(insert);
+					inserts = 0;
+				}
+			}
+		}
+		
+		/**
+		 * Execute batches not yet executed.
+		 * 
+		 * @return the number of values inserted or changed since the writer was constructed
+		 * @throws SQLException
+		 */
+		private long flush() throws SQLException {
+			if (inserts > 0)
+				count += executeBatch(insert);
+			if (updates > 0)
+				count += executeBatch(stored == null ? merge : update);
+			inserts = 0;
+			updates = 0;
+			return count;
+		}
+		
+		/**
+		 * Clear batches.
+		 */
+		private void clear() {
+			clearBatch(insert);
+			clearBatch(update);
+			clearBatch(merge);
+		}
+	}
+	
+	private static final String SELECT_BOX = 
+		"select min_x, max_x, min_y, max_y, min_z, max_z from " + TABLE_VALUE_GEOCOORD_SUMMARY + " where series = ?";
+	/**
+	 * Return the bounding box of all values of a series. The box is read 
+	 * from the summary, or computed from the values when the series has no
+	 * summary. When a series has no value, return null.
+	 * 
+	 * @param series a series
+	 * @return a bounding box or null
+	 * @throws T2DBException
+	 */
+	public GeoBox getBoundingBox(Series<GeoCoord> series) throws T2DBException {
+		GeoBox box = null;
+		ResultSet rs = null;
+		try {
+			check(Permission.READ, series);
+			PreparedStatement stmt = prepare(SELECT_BOX, series);
+			stmt.setInt(1, getId(series));
+			rs = stmt.executeQuery();
+			if (rs.next())
+				box = new GeoBox(rs.getDouble(1), rs.getDouble(2), rs.getDouble(3), rs.getDouble(4), rs.getDouble(5), rs.getDouble(6));
+			else {
+				// no summary: the series is empty or the summary is missing
+				Summary summary = getSummary(series, getId(series), Integer.MIN_VALUE, Integer.MAX_VALUE);
+				if (summary.size > 0)
+					box = new GeoBox(summary.min[0], summary.max[0], summary.min[1], summary.max[1], summary.min[2], summary.max[2]);
+			}
+		} catch (Exception e) {
+			throw T2DBMsg.exception(e, E.E50122, series.getName(true));
+		} finally {
+			close(rs);
+		}
+		return box;
+	}
+	
+	private static final String DELETE_SUMMARY = 
+		"delete from " + TABLE_VALUE_GEOCOORD_SUMMARY + " where series = ?";
+	private static final String INSERT_SUMMARY = 
+		"insert into " + TABLE_VALUE_GEOCOORD_SUMMARY + 
+		" (series, first_date, last_date, size, first_x, first_y, first_z, last_x, last_y, last_z," +
+		" min_x, max_x, min_y, max_y, min_z, max_z)" + 
+		" select a.series, a.first_date, a.last_date, a.size, f.x, f.y, f.z, l.x, l.y, l.z," + 
+		" a.min_x, a.max_x, a.min_y, a.max_y, a.min_z, a.max_z from" +
+		" (select series, min(date) as first_date, max(date) as last_date, count(*) as size," +
+		" min(x) as min_x, max(x) as max_x, min(y) as min_y, max(y) as max_y, min(z) as min_z, max(z) as max_z" +
+		" from " + TABLE_VALUE_GEOCOORD + " where series = ? group by series) as a" + 
+		" join " + TABLE_VALUE_GEOCOORD + " f on f.series = a.series and f.date = a.first_date" + 
+		" join " + TABLE_VALUE_GEOCOORD + " l on l.series = a.series and l.date = a.last_date";
+	/**
+	 * Recompute the summary of a series from all its values. This is only
+	 * needed when a value on the bounding box is deleted or moved inside the
+	 * box, when the series is truncated, or when there is no summary yet, 
+	 * which is cheap for a new series.
+	 * 
+	 * @param series a series
+	 * @param id the series id
+	 * @throws Exception
+	 */
+	private void rebuildSummary(Series<GeoCoord> series, int id) throws Exception {
+		PreparedStatement delete = prepare(DELETE_SUMMARY, series);
+		delete.setInt(1, id);
+		delete.execute();
+		PreparedStatement insert = prepare(INSERT_SUMMARY, series);
+		insert.setInt(1, id);
+		insert.execute();
+	}
+	
+	/**
+	 * A Summary keeps the number of values, the first and last dates, and 
+	 * the bounding box of the values of a series or of a range of dates of 
+	 * a series. The first and last positions are only kept for a series.
+	 * Coordinates are in x, y, z order.
+	 */
+	private static class Summary {
+		private int size;
+		private int firstDate;
+		private int lastDate;
+		private final double[] first = new double[3];
+		private final double[] last = new double[3];
+		private final double[] min = new double[3];
+		private final double[] max = new double[3];
+	}
+	
+	private static final String SELECT_SUMMARY = 
+		"select size, first_date, last_date, min_x, min_y, min_z, max_x, max_y, max_z," + 
+		" first_x, first_y, first_z, last_x, last_y, last_z from " + TABLE_VALUE_GEOCOORD_SUMMARY + 
+		" where series = ?";
+	private static final String SELECT_SUMMARY_BY_RANGE = 
+		"select count(*), min(date), max(date), min(x), min(y), min(z), max(x), max(y), max(z) from " + 
+		TABLE_VALUE_GEOCOORD + " where series = ? and date between ? and ?";
+	private static final String UPDATE_SUMMARY = 
+		"update " + TABLE_VALUE_GEOCOORD_SUMMARY + " set size = ?, first_date = ?, last_date = ?," + 
+		" min_x = ?, min_y = ?, min_z = ?, max_x = ?, max_y = ?, max_z = ?," + 
+		" first_x = ?, first_y = ?, first_z = ?, last_x = ?, last_y = ?, last_z = ? where series = ?";
+	/**
+	 * Return the summary of the values of a series in a range of dates.
+	 * 
+	 * @param series a series
+	 * @param first the first date of the range
+	 * @param last the last date of the range
+	 * @return a summary
+	 * @throws T2DBException
+	 */
+	private Summary getSummary(Series<GeoCoord> series, int first, int last) throws T2DBException {
+		try {
+			return getSummary(series, getId(series), first, last);
+		} catch (Exception e) {
+			throw T2DBMsg.exception(e, E.E50122, series.getName(true));
+		}
+	}
+	
+	private Summary getSummary(Series<GeoCoord> series, int id, int first, int last) throws Exception {
+		PreparedStatement stmt = prepare(SELECT_SUMMARY_BY_RANGE, series);
+		stmt.setInt(1, id);
+		stmt.setInt(2, first);
+		stmt.setInt(3, last);
+		ResultSet rs = stmt.executeQuery();
+		try {
+			rs.next();
+			return readSummary(rs, false);
+		} finally {
+			close(rs);
+		}
+	}
+	
+	/**
+	 * Return the summary of the values in a track.
+	 * 
+	 * @param track a track
+	 * @return a summary
+	 */
+	private Summary summarize(GeoTrack track) {
+		Summary summary = new Summary();
+		summary.size = track.size();
+		if (summary.size > 0) {
+			summary.firstDate = track.getOffset(0);
+			summary.lastDate = track.getOffset(summary.size - 1);
+			double[][] coords = new double[][] {track.getX(), track.getY(), track.getZ()};
+			for (int c = 0; c < 3; c++) {
+				double min = Double.POSITIVE_INFINITY;
+				double max = Double.NEGATIVE_INFINITY;
+				for (int i = 0; i < summary.size; i++) {
+					min = Math.min(min, coords[c][i]);
+					max = Math.max(max, coords[c][i]);
+				}
+				summary.min[c] = min;
+				summary.max[c] = max;
+			}
+		}
+		return summary;
+	}
+	
+	private Summary readSummary(ResultSet rs, boolean positions) throws SQLException {
+		Summary summary = new Summary();
+		summary.size = rs.getInt(1);
+		summary.firstDate = rs.getInt(2);
+		summary.lastDate = rs.getInt(3);
+		for (int c = 0; c < 3; c++) {
+			summary.min[c] = rs.getDouble(4 + c);
+			summary.max[c] = rs.getDouble(7 + c);
+			if (positions) {
+				summary.first[c] = rs.getDouble(10 + c);
+				summary.last[c] = rs.getDouble(13 + c);
+			}
+		}
+		return summary;
+	}
+	
+	/**
+	 * Update the summary of a series after values in a range of dates were
+	 * written or deleted. The number of values is adjusted with the 
+	 * difference between the summaries of the range before and after 
+	 * writing, and the bounding box is extended with the box of the range.
+	 * The first and the last values are looked up again only if the range 
+	 * covers one of them. The summary is recomputed from all values of the
+	 * series only if the range held a value on the bounding box and the box
+	 * of the range has shrunk, or if there was no summary. The boxes of the
+	 * chunks covered by the range are recomputed, or all boxes of the series
+	 * if there was no summary.
+	 * 
+	 * @param series a series
+	 * @param first the first date of the range
+	 * @param last the last date of the range
+	 * @param before the summary of the range before writing
+	 * @throws T2DBException
+	 */
+	private void updateSummary(Series<GeoCoord> series, int first, int last, Summary before) throws T2DBException {
+		try {
+			updateSummary(series, getId(series), first, last, before);
+		} catch (Exception e) {
+			throw T2DBMsg.exception(e, E.E50109, series.getName(true));
+		}
+	}
+	
+	private void updateSummary(Series<GeoCoord> series, int id, int first, int last, Summary before) throws Exception {
+		PreparedStatement stmt = prepare(SELECT_SUMMARY, series);
+		stmt.setInt(1, id);
+		ResultSet rs = stmt.executeQuery();
+		Summary summary = null;
+		try {
+			if (rs.next())
+				summary = readSummary(rs, true);
+		} finally {
+			close(rs);
+		}
+		if (summary == null) {
+			rebuildSummary(series, id);
+			updateBoxes(series, id, Integer.MIN_VALUE, Integer.MAX_VALUE);
+			return;
+		}
+		updateBoxes(series, id, first, last);
+		Summary after = getSummary(series, id, first, last);
+		summary.size += after.size - before.size;
+		if (summary.size <= 0) {
+			rebuildSummary(series, id);
+			return;
+		}
+		for (int c = 0; c < 3; c++) {
+			// an extreme held by a value in the range could be gone
+			boolean minGone = before.size > 0 && before.min[c] == summary.min[c] 
+					&& (after.size == 0 || after.min[c] > summary.min[c]);
+			boolean maxGone = before.size > 0 && before.max[c] == summary.max[c] 
+					&& (after.size == 0 || after.max[c] < summary.max[c]);
+			if (minGone || maxGone) {
+				rebuildSummary(series, id);
+				return;
+			}
+			if (after.size > 0) {
+				summary.min[c] = Math.min(summary.min[c], after.min[c]);
+				summary.max[c] = Math.max(summary.max[c], after.max[c]);
+			}
+		}
+		if (first <= summary.firstDate && !readEnd(series, id, first, true, summary)
+				|| last >= summary.lastDate && !readEnd(series, id, last, false, summary)) {
+			rebuildSummary(series, id);
+			return;
+		}
+		stmt = prepare(UPDATE_SUMMARY, series);
+		stmt.setInt(1, summary.size);
+		stmt.setInt(2, summary.firstDate);
+		stmt.setInt(3, summary.lastDate);
+		for (int c = 0; c < 3; c++) {
+			stmt.setDouble(4 + c, summary.min[c]);
+			stmt.setDouble(7 + c, summary.max[c]);
+			stmt.setDouble(10 + c, summary.first[c]);
+			stmt.setDouble(13 + c, summary.last[c]);
+		}
+		stmt.setInt(16, id);
+		stmt.execute();
+	}
+	
+	private static final String DELETE_BOXES = 
+		"delete from " + TABLE_VALUE_GEOCOORD_BOX + " where series = ? and chunk between ? and ?";
+	private static final String DELETE_BOXES_OUTSIDE = 
+		"delete from " + TABLE_VALUE_GEOCOORD_BOX + " where series = ? and (chunk < ? or chunk > ?)";
+	private static final String CHUNK_OF_DATE = 
+		"cast(floor(date / " + ChunkedAccessMethodsForGeoCoord.CHUNK_SIZE + "e0) as int)";
+	private static final String INSERT_BOXES = 
+		"insert into " + TABLE_VALUE_GEOCOORD_BOX + 
+		" (series, chunk, first_date, last_date, size, min_x, max_x, min_y, max_y, min_z, max_z)" + 
+		" select series, " + CHUNK_OF_DATE + ", min(date), max(date), count(*)," + 
+		" min(x), max(x), min(y), max(y), min(z), max(z) from " + TABLE_VALUE_GEOCOORD + 
+		" where series = ? and date between ? and ? group by series, " + CHUNK_OF_DATE;
+	/**
+	 * Recompute the boxes of the chunks covering a range of dates.
+	 * 
+	 * @param series a series
+	 * @param id the series id
+	 * @param first the first date of the range
+	 * @param last the last date of the range
+	 * @throws Exception
+	 */
+	private void updateBoxes(Series<GeoCoord> series, int id, int first, int last) throws Exception {
+		int firstChunk = first >> BOX_SHIFT;
+		int lastChunk = last >> BOX_SHIFT;
+		PreparedStatement delete = prepare(DELETE_BOXES, series);
+		delete.setInt(1, id);
+		delete.setInt(2, firstChunk);
+		delete.setInt(3, lastChunk);
+		delete.execute();
+		PreparedStatement insert = prepare(INSERT_BOXES, series);
+		insert.setInt(1, id);
+		insert.setInt(2, firstChunk << BOX_SHIFT);
+		insert.setInt(3, (lastChunk << BOX_SHIFT) + (1 << BOX_SHIFT) - 1);
+		insert.execute();
+	}
+	
+	/**
+	 * Delete the boxes of the chunks outside a range of dates and recompute
+	 * the boxes of the chunks at both ends of the range.
+	 * 
+	 * @param series a series
+	 * @param id the series id
+	 * @param first the first date of the range
+	 * @param last the last date of the range
+	 * @throws Exception
+	 */
+	private void truncateBoxes(Series<GeoCoord> series, int id, int first, int last) throws Exception {
+		PreparedStatement delete = prepare(DELETE_BOXES_OUTSIDE, series);
+		delete.setInt(1, id);
+		delete.setInt(2, first >> BOX_SHIFT);
+		delete.setInt(3, last >> BOX_SHIFT);
+		delete.execute();
+		updateBoxes(series, id, first, first);
+		if (last >> BOX_SHIFT != first >> BOX_SHIFT)
+			updateBoxes(series, id, last, last);
+	}
+	
+	/**
+	 * Read the first value at or after a date, or the last value at or 
+	 * before a date, into a summary.
+	 * 
+	 * @return false if there is no such value
+	 */
+	private boolean readEnd(Series<GeoCoord> series, int id, int date, boolean first, Summary summary) throws Exception {
+		PreparedStatement stmt = prepare(first ? SELECT_FIRST_DOUBLE_1 : SELECT_LAST_DOUBLE_1, series);
+		stmt.setMaxRows(1);
+		stmt.setInt(1, id);
+		stmt.setInt(2, date);
+		ResultSet rs = stmt.executeQuery();
+		try {
+			if (!rs.next())
+				return false;
+			double[] position = first ? summary.first : summary.last;
+			if (first)
+				summary.firstDate = rs.getInt(1);
+			else
+				summary.lastDate = rs.getInt(1);
+			for (int c = 0; c < 3; c++)
+				position[c] = rs.getDouble(2 + c);
+			return true;
+		} finally {
+			close(rs);
+		}
+	}
+	
+	private static final String DELETE_VALUES_BY_RANGE = 
+		"delete from " + TABLE_VALUE_GEOCOORD + " where series = ? and date between ? and ?";
+	private void addDeleteRange(PreparedStatement stmt, int id, int first, int last) throws SQLException {
+		stmt.setInt(1, id);
+		stmt.setInt(2, first);
+		stmt.setInt(3, last);
+		stmt.addBatch();
+	}
+	
+	/**
+	 * Return the values of a series in a range.
+	 * 
+	 * @param series a series
+	 * @param id the series id
+	 * @param first the first time domain offset
+	 * @param last the last time domain offset
+	 * @return a track
+	 * @throws Exception
+	 */
+	private GeoTrack getStoredValues(Series<GeoCoord> series, int id, int first, int last) throws Exception {
+		GeoTrack track = new GeoTrack(series.getTimeDomain());
+		PreparedStatement stmt = prepare(SELECT_DOUBLE_BY_RANGE, series);
+		stmt.setInt(1, id);
+		stmt.setInt(2, first);
+		stmt.setInt(3, last);
+		ResultSet rs = stmt.executeQuery();
+		try {
+			while (rs.next())
+				track.put(rs.getInt(1), rs.getDouble(2), rs.getDouble(3), rs.getDouble(4));
+		} finally {
+			close(rs);
+		}
+		return track;
+	}
+	
+	/**
+	 * Return a prepared statement from the cache. The statement cache is
+	 * reset when the connection of the database changes.
+	 * 
+	 * @param sql the SQL text of the statement
+	 * @param dbObject the database object to be accessed
+	 * @return a prepared statement
+	 * @throws T2DBException
+	 * @throws SQLException
+	 */
+	private PreparedStatement prepare(String sql, DBObject dbObject) throws T2DBException, SQLException {
+		return statements.get(dbObject, sql);
+	}
+	
+	/**
+	 * Close all cached statements. Statements will be prepared again
+	 * when needed.
+	 */
+	public void clearStatementCache() {
+		statements.clear();
+	}
+	
+	/**
+	 * Close a result set. Cached statements stay open, so their result sets
+	 * must be closed explicitly.
+	 * 
+	 * @param rs a result set or null
+	 */
+	private void close(ResultSet rs) {
+		try {
+			if (rs != null)
+				rs.close();
+		} catch (SQLException e) {
+			// ignore
+		}
+	}
+	
+	private void clearBatch(PreparedStatement stmt) {
+		try {
+			if (stmt != null)
+				stmt.clearBatch();
+		} catch (SQLException e) {
+			// ignore
+		}
+	}
+	
+	/**
+	 * Execute a batch and return the number of statements which changed
+	 * something.
+	 * 
+	 * @param stmt a prepared statement with a batch
+	 * @return a number
+	 * @throws SQLException
+	 */
+	private int executeBatch(PreparedStatement stmt) throws SQLException {
+		int done = 0;
+		for (int n : stmt.executeBatch()) {
+			if (n > 0 || n == Statement.SUCCESS_NO_INFO)
+				done++;
+		}
+		return done;
+	}
+	
+	/**
+	 * Execute a batch and return the number of rows modified. A statement
+	 * without row count is counted as one row.
+	 * 
+	 * @param stmt a prepared statement with a batch
+	 * @return a number
+	 * @throws SQLException
+	 */
+	private int executeBatchRows(PreparedStatement stmt) throws SQLException {
+		int done = 0;
+		for (int n : stmt.executeBatch()) {
+			if (n > 0)
+				done += n;
+			else if (n == Statement.SUCCESS_NO_INFO)
+				done++;
+		}
+		return done;
+	}
+	
 	private CartesianGeoCoord asCartesian(GeoCoord coord) {
 		try {
 			return (CartesianGeoCoord) coord;
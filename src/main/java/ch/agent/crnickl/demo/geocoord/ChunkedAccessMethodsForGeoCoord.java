@@ -0,0 +1,619 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.geocoord;
+
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ch.agent.crnickl.T2DBException;
+import ch.agent.crnickl.T2DBMsg;
+import ch.agent.crnickl.T2DBMsg.E;
+import ch.agent.crnickl.api.DBObject;
+import ch.agent.crnickl.api.Series;
+import ch.agent.crnickl.api.UpdatableSeries;
+import ch.agent.crnickl.impl.ChronicleUpdatePolicy;
+import ch.agent.crnickl.impl.Permission;
+import ch.agent.crnickl.impl.ValueAccessMethods;
+import ch.agent.crnickl.jdbc.JDBCDatabaseMethods;
+import ch.agent.t2.time.Range;
+import ch.agent.t2.time.TimeDomain;
+import ch.agent.t2.time.TimeIndex;
+import ch.agent.t2.timeseries.Observation;
+import ch.agent.t2.timeseries.TimeAddressable;
+
+/**
+ * An implementation of {@link ValueAccessMethods} for {@link GeoCoord} 
+ * storing values in chunks. A chunk covers {@link #CHUNK_SIZE} consecutive 
+ * time domain offsets and is kept in a single row of table 
+ * {@link #TABLE_VALUE_GEOCOORD_CHUNK}, as a packed binary array. 
+ * Dense tracks need many fewer rows and index entries than with 
+ * {@link AccessMethodsForGeoCoord}, and range scans read only chunks 
+ * overlapping the range.
+ * <p>
+ * The data of a chunk is a 64 bit mask of the slots with a value, followed
+ * by the x, the y, and the z coordinates of these slots, in slot order.
+ * Chunks without any value are deleted. 
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public class ChunkedAccessMethodsForGeoCoord extends JDBCDatabaseMethods implements ValueAccessMethods<GeoCoord> {
+	
+	public static final String TABLE_VALUE_GEOCOORD_CHUNK = "value_geocoord_chunk";
+	
+	/**
+	 * The number of time domain offsets in a chunk.
+	 */
+	public static final int CHUNK_SIZE = 64;
+	
+	private static final int CHUNK_SHIFT = 6;
+	
+	/**
+	 * A chunk keeps the values of a series for {@link #CHUNK_SIZE} 
+	 * consecutive offsets, starting with a multiple of the chunk size.
+	 */
+	private static class Chunk {
+		private final int chunk;
+		private final boolean stored;
+		private long mask;
+		private double[] x;
+		private double[] y;
+		private double[] z;
+		
+		/**
+		 * Construct a chunk.
+		 * 
+		 * @param chunk the chunk number
+		 * @param data the data or null for a chunk not yet in the database
+		 */
+		public Chunk(int chunk, byte[] data) {
+			this.chunk = chunk;
+			x = new double[CHUNK_SIZE];
+			y = new double[CHUNK_SIZE];
+			z = new double[CHUNK_SIZE];
+			stored = data != null;
+			if (stored) {
+				ByteBuffer buffer = ByteBuffer.wrap(data);
+				mask = buffer.getLong();
+				for (double[] coord : new double[][] {x, y, z}) {
+					for (int i = first(); i >= 0; i = next(i))
+						coord[i] = buffer.getDouble();
+				}
+			}
+		}
+		
+		public byte[] encode() {
+			ByteBuffer buffer = ByteBuffer.allocate(8 + 24 * Long.bitCount(mask));
+			buffer.putLong(mask);
+			for (double[] coord : new double[][] {x, y, z}) {
+				for (int i = first(); i >= 0; i = next(i))
+					buffer.putDouble(coord[i]);
+			}
+			return buffer.array();
+		}
+		
+		public int first() {
+			return mask == 0 ? -1 : Long.numberOfTrailingZeros(mask);
+		}
+		
+		public int last() {
+			return mask == 0 ? -1 : 63 - Long.numberOfLeadingZeros(mask);
+		}
+		
+		public int next(int slot) {
+			if (slot == 63)
+				return -1;
+			long rest = mask & (-1L << (slot + 1));
+			return rest == 0 ? -1 : Long.numberOfTrailingZeros(rest);
+		}
+		
+		public int previous(int slot) {
+			if (slot == 0)
+				return -1;
+			long rest = mask & (-1L >>> (64 - slot));
+			return rest == 0 ? -1 : 63 - Long.numberOfLeadingZeros(rest);
+		}
+		
+		public int offset(int slot) {
+			return (chunk << CHUNK_SHIFT) + slot;
+		}
+		
+		public boolean isPresent(int slot) {
+			return (mask & (1L << slot)) != 0;
+		}
+		
+		public boolean isEmpty() {
+			return mask == 0;
+		}
+		
+		public GeoCoord get(int slot) {
+			return new CartesianGeoCoord(x[slot], y[slot], z[slot]);
+		}
+		
+		/**
+		 * Set a value.
+		 * 
+		 * @return true if something changed
+		 */
+		public boolean set(int slot, CartesianGeoCoord coord) {
+			if (isPresent(slot) && x[slot] == coord.getX() && y[slot] == coord.getY() && z[slot] == coord.getZ())
+				return false;
+			mask |= 1L << slot;
+			x[slot] = coord.getX();
+			y[slot] = coord.getY();
+			z[slot] = coord.getZ();
+			return true;
+		}
+		
+		/**
+		 * Clear a value.
+		 * 
+		 * @return true if something changed
+		 */
+		public boolean clear(int slot) {
+			if (!isPresent(slot))
+				return false;
+			mask &= ~(1L << slot);
+			return true;
+		}
+		
+		/**
+		 * Clear values outside a range of slots.
+		 * 
+		 * @return true if something changed
+		 */
+		public boolean retain(int first, int last) {
+			long before = mask;
+			for (int i = this.first(); i >= 0; i = next(i)) {
+				if (i < first || i > last)
+					mask &= ~(1L << i);
+			}
+			return mask != before;
+		}
+		
+	}
+	
+	private StatementCache statements;
+	
+	/**
+	 * Construct an access method object.
+	 */
+	public ChunkedAccessMethodsForGeoCoord() {
+		statements = new StatementCache();
+	}
+	
+	private static int chunk(int offset) {
+		return offset >> CHUNK_SHIFT;
+	}
+	
+	private static int slot(int offset) {
+		return offset & (CHUNK_SIZE - 1);
+	}
+	
+	private static final String SELECT_RANGE = 
+		"select chunk, data from " + TABLE_VALUE_GEOCOORD_CHUNK + " where series = ? and (" + 
+		"chunk = (select min(chunk) from " + TABLE_VALUE_GEOCOORD_CHUNK + " where series = ?) or " + 
+		"chunk = (select max(chunk) from " + TABLE_VALUE_GEOCOORD_CHUNK + " where series = ?)) order by chunk";
+	@Override
+	public Range getRange(Series<GeoCoord> series) throws T2DBException {
+		Range range = null;
+		TimeDomain timeDomain = series.getTimeDomain();
+		ResultSet rs = null;
+		try {
+			int id = getId(series);
+			PreparedStatement stmt = prepare(SELECT_RANGE, series);
+			stmt.setInt(1, id);
+			stmt.setInt(2, id);
+			stmt.setInt(3, id);
+			rs = stmt.executeQuery();
+			Chunk first = null;
+			Chunk last = null;
+			while (rs.next()) {
+				last = new Chunk(rs.getInt(1), rs.getBytes(2));
+				if (first == null)
+					first = last;
+			}
+			if (first != null)
+				range = new Range(timeDomain.timeFromOffset(first.offset(first.first())), 
+						timeDomain.timeFromOffset(last.offset(last.last())));
+		} catch (Exception e) {
+			throw T2DBMsg.exception(e, E.E50122, series.getName(true));
+		} finally {
+			close(rs);
+		}
+		if (range == null)
+			range = new Range(series.getTimeDomain());
+		return range;
+	}
+	
+	private static final String SELECT_CHUNKS_BY_RANGE = 
+		"select chunk, data from " + TABLE_VALUE_GEOCOORD_CHUNK + 
+		" where series = ? and chunk between ? and ? order by chunk";
+	private static final String SELECT_CHUNKS = 
+		"select chunk, data from " + TABLE_VALUE_GEOCOORD_CHUNK + " where series = ? order by chunk";
+	@Override
+	public long getValues(Series<GeoCoord> series, Range range, TimeAddressable<GeoCoord> ts) throws T2DBException {
+		if (range != null && range.isEmpty())
+			return 0;
+		long count = 0;
+		ResultSet rs = null;
+		try {
+			check(Permission.READ, series);
+			int first = Integer.MIN_VALUE;
+			int last = Integer.MAX_VALUE;
+			if (range == null) {
+				PreparedStatement stmt = prepare(SELECT_CHUNKS, series);
+				stmt.setInt(1, getId(series));
+				rs = stmt.executeQuery();
+			} else {
+				first = range.getFirst().asOffset();
+				last = range.getLast().asOffset();
+				PreparedStatement stmt = prepare(SELECT_CHUNKS_BY_RANGE, series);
+				stmt.setInt(1, getId(series));
+				stmt.setInt(2, chunk(first));
+				stmt.setInt(3, chunk(last));
+				rs = stmt.executeQuery();
+			}
+			TimeDomain dom = ts.getTimeDomain();
+			while (rs.next()) {
+				Chunk chunk = new Chunk(rs.getInt(1), rs.getBytes(2));
+				for (int i = chunk.first(); i >= 0; i = chunk.next(i)) {
+					int t = chunk.offset(i);
+					if (t >= first && t <= last) {
+						ts.put(dom.timeFromOffset(t), chunk.get(i));
+						count++;
+					}
+				}
+			}
+		} catch (Exception e) {
+			if (range == null)
+				throw T2DBMsg.exception(e, E.E50121, series.getName(true));
+			else
+				throw T2DBMsg.exception(e, E.E50120, series.getName(true), range.toString());
+		} finally {
+			close(rs);
+		}
+		return count;
+	}
+	
+	private static final String SELECT_CHUNKS_FROM = 
+		"select chunk, data from " + TABLE_VALUE_GEOCOORD_CHUNK + 
+		" where series = ? and chunk >= ? order by chunk";
+	@Override
+	public Observation<GeoCoord> getFirst(Series<GeoCoord> series, TimeIndex time) throws T2DBException {
+		Observation<GeoCoord> obs = null;
+		ResultSet rs = null;
+		try {
+			check(Permission.READ, series);
+			int from = time == null ? Integer.MIN_VALUE : time.asOffset();
+			PreparedStatement stmt = prepare(SELECT_CHUNKS_FROM, series);
+			stmt.setInt(1, getId(series));
+			stmt.setInt(2, chunk(from));
+			rs = stmt.executeQuery();
+			// empty chunks are deleted: at most two chunks are read
+			while (obs == null && rs.next()) {
+				Chunk chunk = new Chunk(rs.getInt(1), rs.getBytes(2));
+				for (int i = chunk.first(); i >= 0; i = chunk.next(i)) {
+					if (chunk.offset(i) >= from) {
+						TimeDomain dom = time == null ? series.getTimeDomain() : time.getTimeDomain();
+						obs = new Observation<GeoCoord>(dom.timeFromOffset(chunk.offset(i)), chunk.get(i));
+						break;
+					}
+				}
+			}
+		} catch (Exception e) {
+				throw T2DBMsg.exception(e, E.E50123, series.getName(true), String.valueOf(time));
+		} finally {
+			close(rs);
+		}
+		return obs;
+	}
+	
+	private static final String SELECT_CHUNKS_TO = 
+		"select chunk, data from " + TABLE_VALUE_GEOCOORD_CHUNK + 
+		" where series = ? and chunk <= ? order by chunk desc";
+	@Override
+	public Observation<GeoCoord> getLast(Series<GeoCoord> series, TimeIndex time) throws T2DBException {
+		Observation<GeoCoord> obs = null;
+		ResultSet rs = null;
+		try {
+			check(Permission.READ, series);
+			int to = time == null ? Integer.MAX_VALUE : time.asOffset();
+			PreparedStatement stmt = prepare(SELECT_CHUNKS_TO, series);
+			stmt.setInt(1, getId(series));
+			stmt.setInt(2, chunk(to));
+			rs = stmt.executeQuery();
+			// empty chunks are deleted: at most two chunks are read
+			while (obs == null && rs.next()) {
+				Chunk chunk = new Chunk(rs.getInt(1), rs.getBytes(2));
+				for (int i = chunk.last(); i >= 0; i = chunk.previous(i)) {
+					if (chunk.offset(i) <= to) {
+						TimeDomain dom = time == null ? series.getTimeDomain() : time.getTimeDomain();
+						obs = new Observation<GeoCoord>(dom.timeFromOffset(chunk.offset(i)), chunk.get(i));
+						break;
+					}
+				}
+			}
+		} catch (Exception e) {
+				throw T2DBMsg.exception(e, E.E50124, series.getName(true), String.valueOf(time));
+		} finally {
+			close(rs);
+		}
+		return obs;
+	}
+	
+	@Override
+	public boolean deleteValue(UpdatableSeries<GeoCoord> series, TimeIndex t, ChronicleUpdatePolicy policy) throws T2DBException {
+		boolean done = false;
+		try {
+			check(Permission.MODIFY, series);
+			policy.willDelete(series, t);
+			policy.deleteValue(series, t);
+			int id = getId(series);
+			int offset = t.asOffset();
+			Map<Integer, Chunk> chunks = getChunks(series, id, chunk(offset), chunk(offset));
+			Chunk chunk = chunks.get(chunk(offset));
+			if (chunk != null && chunk.clear(slot(offset)))
+				done = writeChunks(series, id, Collections.singleton(chunk)) > 0;
+		} catch (Exception e) {
+			throw T2DBMsg.exception(e, E.E50113, series.getName(true), t.toString());
+		}
+		return done;
+	}
+	
+	private static final String DELETE_CHUNKS_OUTSIDE = 
+		"delete from " + TABLE_VALUE_GEOCOORD_CHUNK + " where series = ? and (chunk < ? or chunk > ?)";
+	private static final String DELETE_CHUNKS = 
+		"delete from " + TABLE_VALUE_GEOCOORD_CHUNK + " where series = ?";
+	@Override
+	public boolean updateSeries(UpdatableSeries<GeoCoord> series, Range range, ChronicleUpdatePolicy policy) throws T2DBException {
+		boolean done = false;
+		try {
+			int id = getId(series);
+			check(Permission.MODIFY, series);
+			policy.willUpdate(series, range);
+			done = policy.update(series, range);
+			if (range.isEmpty()) {
+				PreparedStatement stmt = prepare(DELETE_CHUNKS, series);
+				stmt.setInt(1, id);
+				stmt.execute();
+				if (stmt.getUpdateCount() > 0)
+					done = true;
+			} else {
+				int first = range.getFirst().asOffset();
+				int last = range.getLast().asOffset();
+				PreparedStatement stmt = prepare(DELETE_CHUNKS_OUTSIDE, series);
+				stmt.setInt(1, id);
+				stmt.setInt(2, chunk(first));
+				stmt.setInt(3, chunk(last));
+				stmt.execute();
+				if (stmt.getUpdateCount() > 0)
+					done = true;
+				// trim boundary chunks
+				Map<Integer, Chunk> chunks = getChunks(series, id, chunk(first), chunk(first));
+				chunks.putAll(getChunks(series, id, chunk(last), chunk(last)));
+				List<Chunk> trimmed = new ArrayList<Chunk>(2);
+				for (Chunk chunk : chunks.values()) {
+					int from = chunk.chunk == chunk(first) ? slot(first) : 0;
+					int to = chunk.chunk == chunk(last) ? slot(last) : CHUNK_SIZE - 1;
+					if (chunk.retain(from, to))
+						trimmed.add(chunk);
+				}
+				if (trimmed.size() > 0 && writeChunks(series, id, trimmed) > 0)
+					done = true;
+			}
+		} catch (Exception e) {
+			throw T2DBMsg.exception(e, E.E50109, series.getName(true));
+		}
+		return done;
+	}
+	
+	/**
+	 * Update values. All chunks overlapping the range of the values are
+	 * read in a single query and modified in memory. Only chunks actually 
+	 * modified are then written, with one batch of inserts, one of updates,
+	 * and one of deletes. Updates which would not change anything are not 
+	 * counted.
+	 * <p>
+	 * An IllegalArgumentException is thrown if a value is null.
+	 */
+	@Override
+	public long updateValues(UpdatableSeries<GeoCoord> series, TimeAddressable<GeoCoord> values, ChronicleUpdatePolicy policy) throws T2DBException {
+		Range range = values.getRange();
+		if (range.isEmpty())
+			return 0;
+		long count = 0;
+		try {
+			check(Permission.MODIFY, series);
+			int id = getId(series);
+			Map<Integer, Chunk> chunks = getChunks(series, id, 
+					chunk(range.getFirst().asOffset()), chunk(range.getLast().asOffset()));
+			Map<Integer, Chunk> modified = new TreeMap<Integer, Chunk>();
+			for(Observation<GeoCoord> obs : values) {
+				int t = obs.getTime().asOffset();
+				Chunk chunk = chunks.get(chunk(t));
+				if (values.isMissing(obs.getValue())) {
+					policy.willDelete(series, obs.getTime());
+					policy.deleteValue(series, obs.getTime());
+					if (chunk != null && chunk.clear(slot(t))) {
+						modified.put(chunk.chunk, chunk);
+						count++;
+					}
+				} else {
+					CartesianGeoCoord coord = asCartesian(obs.getValue());
+					if (coord == null)
+						throw new IllegalArgumentException("value null");
+					if (chunk == null) {
+						chunk = new Chunk(chunk(t), null);
+						chunks.put(chunk.chunk, chunk);
+					}
+					if (chunk.set(slot(t), coord)) {
+						modified.put(chunk.chunk, chunk);
+						count++;
+					}
+				}
+			}
+			if (count > 0)
+				writeChunks(series, id, modified.values());
+		} catch (IllegalArgumentException e) {
+			throw e;
+		} catch (Exception e) {
+			throw T2DBMsg.exception(e, E.E50110, series.getName(true), range.toString());
+		}
+		return count;
+	}
+	
+	/**
+	 * Return the chunks of a series in a range of chunk numbers, keyed by
+	 * chunk number.
+	 * 
+	 * @param series a series
+	 * @param id the series id
+	 * @param first the first chunk number
+	 * @param last the last chunk number
+	 * @return a map of chunks
+	 * @throws Exception
+	 */
+	private Map<Integer, Chunk> getChunks(Series<GeoCoord> series, int id, int first, int last) throws Exception {
+		Map<Integer, Chunk> chunks = new TreeMap<Integer, Chunk>();
+		PreparedStatement stmt = prepare(SELECT_CHUNKS_BY_RANGE, series);
+		stmt.setInt(1, id);
+		stmt.setInt(2, first);
+		stmt.setInt(3, last);
+		ResultSet rs = stmt.executeQuery();
+		try {
+			while (rs.next()) {
+				int chunk = rs.getInt(1);
+				chunks.put(chunk, new Chunk(chunk, rs.getBytes(2)));
+			}
+		} finally {
+			close(rs);
+		}
+		return chunks;
+	}
+	
+	private static final String INSERT_CHUNK = 
+		"insert into " + TABLE_VALUE_GEOCOORD_CHUNK + " (series, chunk, data) values(?, ?, ?)";
+	private static final String UPDATE_CHUNK = 
+		"update " + TABLE_VALUE_GEOCOORD_CHUNK + " set data = ? where series = ? and chunk = ?";
+	private static final String DELETE_CHUNK = 
+		"delete from " + TABLE_VALUE_GEOCOORD_CHUNK + " where series = ? and chunk = ?";
+	/**
+	 * Write chunks. New chunks are inserted, stored chunks are updated, and 
+	 * empty chunks are deleted. All chunks are assumed to be modified, 
+	 * except new empty chunks, which are ignored.
+	 * 
+	 * @param series a series
+	 * @param id the series id
+	 * @param chunks a collection of chunks
+	 * @return the number of rows modified
+	 * @throws Exception
+	 */
+	private int writeChunks(Series<GeoCoord> series, int id, Iterable<Chunk> chunks) throws Exception {
+		List<PreparedStatement> batches = new ArrayList<PreparedStatement>(3);
+		try {
+			for (Chunk chunk : chunks) {
+				if (chunk.isEmpty()) {
+					if (chunk.stored) {
+						PreparedStatement stmt = prepare(DELETE_CHUNK, series);
+						stmt.setInt(1, id);
+						stmt.setInt(2, chunk.chunk);
+						addBatch(batches, stmt);
+					}
+				} else if (chunk.stored) {
+					PreparedStatement stmt = prepare(UPDATE_CHUNK, series);
+					stmt.setBytes(1, chunk.encode());
+					stmt.setInt(2, id);
+					stmt.setInt(3, chunk.chunk);
+					addBatch(batches, stmt);
+				} else {
+					PreparedStatement stmt = prepare(INSERT_CHUNK, series);
+					stmt.setInt(1, id);
+					stmt.setInt(2, chunk.chunk);
+					stmt.setBytes(3, chunk.encode());
+					addBatch(batches, stmt);
+				}
+			}
+			int done = 0;
+			for (PreparedStatement stmt : batches) {
+				for (int n : stmt.executeBatch()) {
+					if (n != 0)
+						done++;
+				}
+			}
+			return done;
+		} finally {
+			// cached statements must not keep batches which failed
+			for (PreparedStatement stmt : batches) {
+				try {
+					stmt.clearBatch();
+				} catch (SQLException e) {
+					// ignore
+				}
+			}
+		}
+	}
+	
+	private void addBatch(List<PreparedStatement> batches, PreparedStatement stmt) throws SQLException {
+		stmt.addBatch();
+		if (!batches.contains(stmt))
+			batches.add(stmt);
+	}
+	
+	private PreparedStatement prepare(String sql, DBObject dbObject) throws T2DBException, SQLException {
+		return statements.get(dbObject, sql);
+	}
+	
+	/**
+	 * Close all cached statements. Statements will be prepared again
+	 * when needed.
+	 */
+	public void clearStatementCache() {
+		statements.clear();
+	}
+	
+	/**
+	 * Close a result set. Cached statements stay open, so their result sets
+	 * must be closed explicitly.
+	 * 
+	 * @param rs a result set or null
+	 */
+	private void close(ResultSet rs) {
+		try {
+			if (rs != null)
+				rs.close();
+		} catch (SQLException e) {
+			// ignore
+		}
+	}
+	
+	private CartesianGeoCoord asCartesian(GeoCoord coord) {
+		try {
+			return (CartesianGeoCoord) coord;
+		} catch (Exception e) {
+			throw new RuntimeException(String.format("expected a %s value but got a %s",
+					CartesianGeoCoord.class.getName(), coord.getClass().getName()));
+		}
+	}
+	
+}
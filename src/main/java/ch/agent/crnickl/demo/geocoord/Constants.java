@@ -35,6 +35,8 @@ public class Constants extends KeyedMessage {
 	public enum K {
 		DUPLICATE_ID,
 		NO_SUCH_ID,
+		PARAMETER_ERR,
+		THREADS_PARAM,
 		;
 		
 	    /**
@@ -0,0 +1,117 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.geocoord;
+
+/**
+ * A GeoBox is a bounding box of {@link CartesianGeoCoord} positions, with
+ * sides parallel to the axes. A GeoBox is immutable.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public class GeoBox {
+	
+	private final double minX;
+	private final double maxX;
+	private final double minY;
+	private final double maxY;
+	private final double minZ;
+	private final double maxZ;
+	
+	public GeoBox(double minX, double maxX, double minY, double maxY, double minZ, double maxZ) {
+		this.minX = minX;
+		this.maxX = maxX;
+		this.minY = minY;
+		this.maxY = maxY;
+		this.minZ = minZ;
+		this.maxZ = maxZ;
+	}
+	
+	public double getMinX() {
+		return minX;
+	}
+	
+	public double getMaxX() {
+		return maxX;
+	}
+	
+	public double getMinY() {
+		return minY;
+	}
+	
+	public double getMaxY() {
+		return maxY;
+	}
+	
+	public double getMinZ() {
+		return minZ;
+	}
+	
+	public double getMaxZ() {
+		return maxZ;
+	}
+	
+	/**
+	 * Return true if the position is inside the box or on its surface.
+	 * 
+	 * @param coord a position
+	 * @return true if the position is in the box
+	 */
+	public boolean contains(CartesianGeoCoord coord) {
+		return distanceTo(coord) == 0d;
+	}
+	
+	/**
+	 * Return the distance from a position to the nearest point of the box.
+	 * The distance is zero when the position is in the box.
+	 * 
+	 * @param coord a position
+	 * @return a distance in meters
+	 */
+	public double distanceTo(CartesianGeoCoord coord) {
+		double dx = gap(coord.getX(), minX, maxX);
+		double dy = gap(coord.getY(), minY, maxY);
+		double dz = gap(coord.getZ(), minZ, maxZ);
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+	
+	/**
+	 * Return true if some point of the box is not farther from the position 
+	 * than the distance specified. When false, no position in the box is near
+	 * the position.
+	 * 
+	 * @param coord a position
+	 * @param distance a distance in meters
+	 * @return true if the box is near the position
+	 */
+	public boolean isNear(CartesianGeoCoord coord, double distance) {
+		return distanceTo(coord) <= distance;
+	}
+	
+	private double gap(double v, double min, double max) {
+		if (v < min)
+			return min - v;
+		if (v > max)
+			return v - max;
+		return 0d;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("[%f:%f:%f, %f:%f:%f]", minX, minY, minZ, maxX, maxY, maxZ);
+	}
+	
+}
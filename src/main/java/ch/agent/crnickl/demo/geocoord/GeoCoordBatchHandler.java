@@ -0,0 +1,42 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.geocoord;
+
+/**
+ * A GeoCoordBatchHandler receives batches of cartesian positions read from
+ * a series, in ascending time order. A batch is passed as parallel arrays 
+ * of time domain offsets and x, y, and z coordinates. Arrays are reused 
+ * for the next batch and must not be kept by the handler.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public interface GeoCoordBatchHandler {
+	
+	/**
+	 * Handle a batch of positions.
+	 * 
+	 * @param offset array of time domain offsets
+	 * @param x array of x coordinates
+	 * @param y array of y coordinates
+	 * @param z array of z coordinates
+	 * @param size the number of positions in the arrays
+	 * @return true to get the next batch, false to stop
+	 * @throws Exception
+	 */
+	boolean handle(int[] offset, double[] x, double[] y, double[] z, int size) throws Exception;
+	
+}
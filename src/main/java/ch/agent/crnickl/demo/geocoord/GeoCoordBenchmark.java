@@ -0,0 +1,252 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.geocoord;
+
+import java.io.PrintStream;
+import java.util.List;
+
+import ch.agent.crnickl.api.Chronicle;
+import ch.agent.crnickl.api.Property;
+import ch.agent.crnickl.api.UpdatableChronicle;
+import ch.agent.crnickl.api.UpdatableSeries;
+import ch.agent.crnickl.demo.geocoord.AccessMethodsForGeoCoord.WriteMode;
+import ch.agent.crnickl.demo.geocoord.Constants.K;
+import ch.agent.crnickl.impl.ValueAccessMethods;
+import ch.agent.t2.time.Adjustment;
+import ch.agent.t2.time.Range;
+import ch.agent.t2.time.TimeDomain;
+
+/**
+ * GeoCoordBenchmark compares the write modes of
+ * {@link AccessMethodsForGeoCoord} on re-load workloads. Positions of a
+ * number of things are loaded once, then loaded again in each write mode,
+ * first with new values, then with the same values, which leaves the
+ * database unchanged. With other access methods, like
+ * {@link ChunkedAccessMethodsForGeoCoord}, there is a single mode. Before
+ * that, the load of synthetic tracks is timed.
+ * <p>
+ * The two loads take different paths. Synthetic tracks are written like in
+ * {@link GeoCoordDemo#inventSomeData(Range, String...)}, a track at a time.
+ * Re-loads are the baseline: values are set one by one in the series, like
+ * a client unaware of tracks would do, and written by the access methods
+ * when updates are applied.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public class GeoCoordBenchmark extends GeoCoordDemo {
+	
+	/**
+	 * The main method takes one to three parameters. The first parameter is
+	 * the name of a parameter file, like for {@link GeoCoordDemo}. The
+	 * optional second parameter is the number of things, 100 by default.
+	 * The optional third parameter is the number of threads generating 
+	 * synthetic tracks, 1 by default.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 3) { 
+			System.err.println("This program wants a parameter string\n" +
+			"containing a list of comma-separated key-value pairs,\n" +
+			"optionally followed by a number of things and a number of threads.\n" +
+			"Example: 'file=geo.parm' 1000 4");
+			System.exit(1);
+		}
+		try {
+			GeoCoordBenchmark benchmark = new GeoCoordBenchmark(args[0]);
+			benchmark.setUpHyperSQLDatabase();
+			benchmark.declareFooTimeToBeOkay();
+			String[] ids = benchmark.setUpThings(args.length > 1 ? Integer.parseInt(args[1]) : 100);
+			Range range = new Range(FooTime.DOMAIN, 
+					"2012-04-09T12:15:00", "2012-07-09T17:23:42", 
+					Adjustment.UP);
+			benchmark.generate(System.out, range, args.length > 2 ? Integer.parseInt(args[2]) : 1, ids);
+			benchmark.run(System.out, range, ids);
+			System.exit(0);
+		} catch (Exception e) {
+			System.err.println("There is a problem ...");
+			e.printStackTrace(System.err);
+			System.exit(2);
+		}
+	}
+	
+	/**
+	 * Construct the benchmark using parameters from a file. The database
+	 * must be a {@link GeoCoordDatabase}.
+	 * 
+	 * @param parameterFile the name of a parameter file
+	 * @throws Exception
+	 */
+	public GeoCoordBenchmark(String parameterFile) throws Exception {
+		super(parameterFile);
+	}
+	
+	/**
+	 * Set up the schema and create things.
+	 * 
+	 * @param count the number of things
+	 * @return an array of ID attribute values
+	 * @throws Exception
+	 */
+	public String[] setUpThings(int count) throws Exception {
+		createValueTypes();
+		createProperties();
+		createSchemas();
+		createCollection();
+		UpdatableChronicle things = getDatabase().getChronicle("things", true).edit();
+		String[] ids = new String[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = String.format("THING-%d", i);
+			createThing(things, "thing" + i, "Thing number " + i, ids[i]);
+		}
+		getDatabase().commit();
+		return ids;
+	}
+	
+	/**
+	 * Generate synthetic tracks with a {@link GeoTrackGenerator} on a number 
+	 * of threads, load them, and commit. The number of observations per 
+	 * second is reported for generating, for loading, and overall. Tracks
+	 * are written with {@link #writeTrack(UpdatableChronicle, GeoTrack)}: 
+	 * with {@link AccessMethodsForGeoCoord}, each track is loaded with
+	 * {@link AccessMethodsForGeoCoord#updateValues(UpdatableSeries, GeoTrack)}
+	 * in {@link WriteMode#BATCH} mode, which inserts values in batches 
+	 * without creating objects for them. With other access methods, values 
+	 * are set one by one in the series. Loading is single-threaded.
+	 * 
+	 * @param out stream taking the output
+	 * @param range time range
+	 * @param threads a positive number of threads
+	 * @param ids array of ID attribute values
+	 * @throws Exception
+	 */
+	public void generate(PrintStream out, Range range, int threads, String... ids) throws Exception {
+		TimeDomain domain = range.getTimeDomain();
+		long start = System.nanoTime();
+		GeoTrack[] tracks = new GeoTrackGenerator(42).generate(ids.length, domain, 
+				range.getFirst().asOffset(), range.getLast().asOffset(), threads);
+		long generated = System.nanoTime();
+		ValueAccessMethods<GeoCoord> methods = ((GeoCoordDatabase) getDatabase()).getGeoCoordAccessMethods();
+		AccessMethodsForGeoCoord trackMethods = methods instanceof AccessMethodsForGeoCoord ? 
+				(AccessMethodsForGeoCoord) methods : null;
+		WriteMode mode = trackMethods == null ? null : trackMethods.getWriteMode();
+		long observations = 0;
+		try {
+			if (trackMethods != null)
+				trackMethods.setWriteMode(WriteMode.BATCH);
+			for (int i = 0; i < ids.length; i++) {
+				writeTrack(thing(ids[i]), tracks[i]);
+				observations += tracks[i].size();
+			}
+			getDatabase().commit();
+		} finally {
+			if (trackMethods != null)
+				trackMethods.setWriteMode(mode);
+		}
+		long loaded = System.nanoTime();
+		String writer = trackMethods != null ? "track, " + WriteMode.BATCH.name() : "one by one";
+		out.println(String.format("%-8s %10s %10s %12s", "step", "values", "ms", "obs/s"));
+		printStep(out, "generate", observations, generated - start, threads + " threads");
+		printStep(out, "load", observations, loaded - generated, writer);
+		printStep(out, "total", observations, loaded - start, null);
+	}
+	
+	private void printStep(PrintStream out, String step, long observations, long nanos, String note) {
+		out.println(String.format("%-8s %10d %10d %12.0f%s", step, observations, nanos / 1000000, 
+				observations * 1e9d / nanos, note == null ? "" : " (" + note + ")"));
+	}
+	
+	/**
+	 * Load data once and time re-loads in each write mode. Re-loads are the
+	 * baseline, with values set one by one.
+	 * 
+	 * @param out stream taking the output
+	 * @param range time range
+	 * @param ids array of ID attribute values
+	 * @throws Exception
+	 */
+	public void run(PrintStream out, Range range, String... ids) throws Exception {
+		ValueAccessMethods<GeoCoord> methods = ((GeoCoordDatabase) getDatabase()).getGeoCoordAccessMethods();
+		long observations = range.getSize() * ids.length;
+		load(range, 0, ids);
+		out.println("re-load, values set one by one (baseline)");
+		out.println(String.format("%-8s %-10s %10s %12s", "mode", "values", "ms", "obs/s"));
+		if (methods instanceof AccessMethodsForGeoCoord) {
+			for (WriteMode mode : WriteMode.values()) {
+				((AccessMethodsForGeoCoord) methods).setWriteMode(mode);
+				long seed = mode.ordinal() + 1;
+				print(out, mode.name(), "changed", load(range, seed, ids), observations);
+				print(out, mode.name(), "unchanged", load(range, seed, ids), observations);
+			}
+		} else {
+			String mode = methods.getClass().getSimpleName();
+			print(out, mode, "changed", load(range, 1, ids), observations);
+			print(out, mode, "unchanged", load(range, 1, ids), observations);
+		}
+	}
+	
+	private void print(PrintStream out, String mode, String values, long nanos, long observations) {
+		out.println(String.format("%-8s %-10s %10d %12.0f", 
+				mode, values, nanos / 1000000, observations * 1e9d / nanos));
+	}
+	
+	/**
+	 * Load synthetic tracks, determined by a seed, and commit. This is the
+	 * baseline: values are set one by one in the series, as 
+	 * {@link GeoCoord} objects, and written when updates are applied, in
+	 * the current write mode. Tracks are generated before timing starts.
+	 * 
+	 * @param range time range
+	 * @param seed a seed for random numbers
+	 * @param ids array of ID attribute values
+	 * @return the elapsed time in nanoseconds
+	 * @throws Exception
+	 */
+	private long load(Range range, long seed, String... ids) throws Exception {
+		TimeDomain domain = range.getTimeDomain();
+		GeoTrack[] tracks = new GeoTrackGenerator(seed).generate(ids.length, domain, 
+				range.getFirst().asOffset(), range.getLast().asOffset(), 1);
+		long start = System.nanoTime();
+		for (int i = 0; i < ids.length; i++) {
+			UpdatableChronicle thing = thing(ids[i]);
+			UpdatableSeries<GeoCoord> series = position(thing);
+			GeoTrack track = tracks[i];
+			for (int j = 0; j < track.size(); j++)
+				series.setValue(domain.timeFromOffset(track.getOffset(j)), 
+						new CartesianGeoCoord(track.getX(j), track.getY(j), track.getZ(j)));
+			thing.applyUpdates();
+		}
+		getDatabase().commit();
+		return System.nanoTime() - start;
+	}
+	
+	private UpdatableChronicle thing(String id) throws Exception {
+		Property<String> idProp = getDatabase().getProperty("ID", true).typeCheck(String.class);
+		List<Chronicle> found = idProp.getChronicles(id, 1);
+		if (found.size() == 0)
+			throw K.NO_SUCH_ID.exception(id);
+		return found.get(0).edit();
+	}
+	
+	private UpdatableSeries<GeoCoord> position(UpdatableChronicle thing) throws Exception {
+		UpdatableSeries<GeoCoord> series = thing.updateSeries("position");
+		if (series == null)
+			series = thing.createSeries("position");
+		return series;
+	}
+	
+}
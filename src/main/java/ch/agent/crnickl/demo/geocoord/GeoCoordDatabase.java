@@ -16,6 +16,7 @@
  */
 package ch.agent.crnickl.demo.geocoord;
 
+import ch.agent.crnickl.impl.ValueAccessMethods;
 import ch.agent.crnickl.jdbc.JDBCDatabase;
 import ch.agent.t2.time.TimeDomainCatalog;
 
@@ -26,9 +27,41 @@ import ch.agent.t2.time.TimeDomainCatalog;
  */
 public class GeoCoordDatabase extends JDBCDatabase {
 
+	private ValueAccessMethods<GeoCoord> accessMethods;
+	
+	/**
+	 * Construct a database storing GeoCoord values with
+	 * {@link AccessMethodsForGeoCoord}, one row per value.
+	 * 
+	 * @param name the name of the database
+	 * @param catalog the time domain catalog
+	 */
 	public GeoCoordDatabase(String name, TimeDomainCatalog catalog) {
+		this(name, catalog, new AccessMethodsForGeoCoord());
+	}
+	
+	/**
+	 * Construct a database storing GeoCoord values with the given access
+	 * methods.
+	 * 
+	 * @param name the name of the database
+	 * @param catalog the time domain catalog
+	 * @param accessMethods the access methods for GeoCoord values
+	 */
+	public GeoCoordDatabase(String name, TimeDomainCatalog catalog, ValueAccessMethods<GeoCoord> accessMethods) {
 		super(name, catalog);
-		setAccessMethods(GeoCoordValueScanner.class.getName(), new AccessMethodsForGeoCoord());
+		this.accessMethods = accessMethods;
+		setAccessMethods(GeoCoordValueScanner.class.getName(), accessMethods);
+	}
+	
+	/**
+	 * Return the access methods for GeoCoord values, for example to
+	 * configure the size of JDBC batches.
+	 * 
+	 * @return the access methods for GeoCoord values
+	 */
+	public ValueAccessMethods<GeoCoord> getGeoCoordAccessMethods() {
+		return accessMethods;
 	}
 	
 }
@@ -22,6 +22,7 @@ import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.sql.Connection;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.logging.Level;
@@ -44,11 +45,11 @@ import ch.agent.crnickl.api.UpdatableSeries;
 import ch.agent.crnickl.api.UpdatableValueType;
 import ch.agent.crnickl.api.ValueType;
 import ch.agent.crnickl.demo.geocoord.Constants.K;
+import ch.agent.crnickl.impl.ValueAccessMethods;
 import ch.agent.crnickl.jdbc.JDBCDatabase;
 import ch.agent.t2.time.Adjustment;
 import ch.agent.t2.time.Range;
 import ch.agent.t2.time.TimeDomain;
-import ch.agent.t2.time.TimeIndex;
 
 /**
  * This is the "main" class for GeoCoord demo.
@@ -86,7 +87,8 @@ public class GeoCoordDemo {
 					"2012-04-09T12:15:00", "2012-07-09T17:23:42", 
 					Adjustment.UP);
 			demo.inventSomeData(range, ids);
-			demo.playWithData(System.out, new CartesianGeoCoord("0:0:0"), ids);
+			// things move on the surface of the earth
+			demo.playWithData(System.out, new CartesianGeoCoord("6371000:0:0"), ids);
 			System.exit(0);
 		} catch (Exception e) {
 			System.err.println("There is a problem ...");
@@ -97,9 +99,13 @@ public class GeoCoordDemo {
 
 	private Random random;
 	private Database db;
+	private int threads;
 	
 	/**
-	 * Construct the demo using parameters from a file.
+	 * Construct the demo using parameters from a file. The optional 
+	 * parameter <em>demo.threads</em> sets the number of threads used by
+	 * {@link #inventSomeData(Range, String...)} and
+	 * {@link #playWithData(PrintStream, GeoCoord, String...)}.
 	 * 
 	 * @param parameterFile the name of a parameter file
 	 * @throws Exception
@@ -110,6 +116,36 @@ public class GeoCoordDemo {
 		setupLogging(db);
 		// we'll invent data
 		random = new Random();
+		threads = 1;
+		String threadsParam = sdm.getParameters().get(K.THREADS_PARAM.val());
+		if (threadsParam != null) {
+			try {
+				setThreads(Integer.parseInt(threadsParam));
+			} catch (Exception e) {
+				throw K.PARAMETER_ERR.exception(K.THREADS_PARAM.val(), threadsParam);
+			}
+		}
+	}
+	
+	/**
+	 * Set the number of threads used to generate data and to compute 
+	 * reports. The default is 1.
+	 * 
+	 * @param threads a positive number
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads < 1");
+		this.threads = threads;
+	}
+	
+	/**
+	 * Return the database.
+	 * 
+	 * @return the database
+	 */
+	protected Database getDatabase() {
+		return db;
 	}
 	
 	/**
@@ -260,33 +296,62 @@ public class GeoCoordDemo {
 	}
 	
 	/**
-	 * Generate random geographical positions. 
+	 * Generate random geographical positions. Tracks of things moving on 
+	 * the surface of the earth are generated by a {@link GeoTrackGenerator} 
+	 * on the number of threads set with {@link #setThreads(int)}, and 
+	 * written with {@link #writeTrack(UpdatableChronicle, GeoTrack)}.
 	 * 
 	 * @param range time range
 	 * @param ids list of strings
 	 * @throws Exception
 	 */
 	public void inventSomeData(Range range, String... ids) throws Exception {
+		if (range.isEmpty())
+			return;
 		Chronicle[] things = chronicles(ids);
-		for (Chronicle thing : things) {
-			inventSomeData(thing.edit(), range);
-		}
+		GeoTrack[] tracks = new GeoTrackGenerator(random.nextLong()).generate(things.length, 
+				range.getTimeDomain(), range.getFirst().asOffset(), range.getLast().asOffset(), threads);
+		for (int i = 0; i < things.length; i++)
+			writeTrack(things[i].edit(), tracks[i]);
 	}
 	
-	protected void inventSomeData(UpdatableChronicle thing, Range range) throws Exception {
+	/**
+	 * Write a track into the position series of a thing, creating the series
+	 * if needed, and apply updates. With {@link AccessMethodsForGeoCoord}, 
+	 * the track is written with 
+	 * {@link AccessMethodsForGeoCoord#updateValues(UpdatableSeries, GeoTrack)},
+	 * which writes values in batches without creating objects for them. With 
+	 * other access methods, values are set one by one in the series.
+	 * 
+	 * @param thing a chronicle
+	 * @param track a track in the time domain of the series
+	 * @throws Exception
+	 */
+	protected void writeTrack(UpdatableChronicle thing, GeoTrack track) throws Exception {
 		UpdatableSeries<GeoCoord> series = thing.updateSeries("position");
 		if (series == null)
 			series = thing.createSeries("position");
-		for (TimeIndex t : range) {
-			GeoCoord coord = new CartesianGeoCoord(ran(), ran(), ran());
-			series.setValue(t, coord);
+		ValueAccessMethods<GeoCoord> methods = db instanceof GeoCoordDatabase ? 
+				((GeoCoordDatabase) db).getGeoCoordAccessMethods() : null;
+		if (methods instanceof AccessMethodsForGeoCoord) {
+			// the series must exist in the database before values are written
+			thing.applyUpdates();
+			((AccessMethodsForGeoCoord) methods).updateValues(thing.updateSeries("position"), track);
+		} else {
+			TimeDomain domain = track.getTimeDomain();
+			for (int i = 0; i < track.size(); i++)
+				series.setValue(domain.timeFromOffset(track.getOffset(i)), 
+						new CartesianGeoCoord(track.getX(i), track.getY(i), track.getZ(i)));
+			thing.applyUpdates();
 		}
-		thing.applyUpdates();
 	}
 	
 	/**
 	 * In the common range of the things, print the shortest distance between a reference
-	 * point and a list of things passed as an array.
+	 * point and a list of things passed as an array. The positions of all things are
+	 * loaded once and the nearest thing is found with a {@link NearestThingEngine}.
+	 * The range is split into slices computed in parallel by a 
+	 * {@link TimePartitionedReport}.
 	 *  
 	 * @param out stream taking the output
 	 * @param ref reference point
@@ -308,29 +373,100 @@ public class GeoCoordDemo {
 			else
 				range = range.intersection(position.getRange());
 		}
-		if (range != null) {
-			for (TimeIndex t : range) {
-				double min = Double.MAX_VALUE;
-				String winner = null;
-				for (Series<GeoCoord> position : positions) {
-					double dist = ref.distanceTo(position.getValue(t));
-					if (dist < min) {
-						min = dist;
-						winner = position.getChronicle().getName(false);
+		if (range != null && !range.isEmpty()) {
+			final String[] names = new String[positions.size()];
+			for (int i = 0; i < names.length; i++)
+				names[i] = positions.get(i).getChronicle().getName(false);
+			final NearestThingEngine engine = new NearestThingEngine(loadTracks(positions, range));
+			final CartesianGeoCoord point = (CartesianGeoCoord) ref;
+			final TimeDomain domain = range.getTimeDomain();
+			new TimePartitionedReport(threads).run(out, range.getFirst().asOffset(), range.getLast().asOffset(), 
+					new TimePartitionedReport.Section() {
+				@Override
+				public void report(int first, int last, StringBuilder out) throws Exception {
+					int[] winner = new int[last - first + 1];
+					double[] distance = new double[winner.length];
+					engine.nearest(point, first, last, winner, distance);
+					for (int j = 0; j < winner.length; j++) {
+						if (winner[j] >= 0)
+							out.append(String.format("%s %6.0fkm (%s)%n", domain.timeFromOffset(first + j).toString(), 
+									distance[j]/1000d, names[winner[j]]));
 					}
 				}
-				out.println(String.format("%s %6.0fkm (%s)", t.toString(), min/1000d, winner));
+			});
+		}
+	}
+	
+	/**
+	 * Print the times when things were not farther than a distance from a
+	 * point. With {@link AccessMethodsForGeoCoord}, the search is done by
+	 * {@link AccessMethodsForGeoCoord#findNear}, which prunes series using
+	 * their bounding boxes. Else positions are loaded and checked one by one.
+	 * In both cases, hits are printed in time order.
+	 * 
+	 * @param out stream taking the output
+	 * @param point a point
+	 * @param radius a distance in meters
+	 * @param range a range or null for all times
+	 * @param ids array of a things
+	 * @throws Exception
+	 */
+	public void whoWasNear(PrintStream out, GeoCoord point, double radius, Range range, String... ids) throws Exception {
+		List<Series<GeoCoord>> positions = new ArrayList<Series<GeoCoord>>();
+		for (Chronicle thing : chronicles(ids)) {
+			Series<GeoCoord> s = thing.getSeries("position");
+			if (s != null) 
+				positions.add(s);
+		}
+		CartesianGeoCoord ref = (CartesianGeoCoord) point;
+		ValueAccessMethods<GeoCoord> methods = db instanceof GeoCoordDatabase ? 
+				((GeoCoordDatabase) db).getGeoCoordAccessMethods() : null;
+		List<GeoHit> hits;
+		if (methods instanceof AccessMethodsForGeoCoord)
+			hits = ((AccessMethodsForGeoCoord) methods).findNear(positions, ref, radius, range);
+		else {
+			hits = new ArrayList<GeoHit>();
+			for (Series<GeoCoord> position : positions) {
+				Range r = range == null ? position.getRange() : range;
+				GeoTrack track = GeoTrack.of(position.getValues(r));
+				CartesianGeoCoord coord = new CartesianGeoCoord(0, 0, 0);
+				for (int i = 0; i < track.size(); i++) {
+					double distance = ref.distanceTo(track.get(i, coord));
+					if (distance <= radius)
+						hits.add(new GeoHit(position, track.getTimeDomain().timeFromOffset(track.getOffset(i)), distance));
+				}
 			}
+			Collections.sort(hits, GeoHit.TIME_ORDER);
 		}
+		for (GeoHit hit : hits) 
+			out.println(String.format("%s %6.0fm (%s)", hit.getTime().toString(), hit.getDistance(), 
+					hit.getSeries().getChronicle().getName(false)));
 	}
 	
 	/**
-	 * @return random double between plus and minus 10'000'000.
+	 * Load positions into tracks. With {@link AccessMethodsForGeoCoord}, all
+	 * series are read with a single query.
+	 * 
+	 * @param positions a list of series
+	 * @param range a range
+	 * @return an array of tracks
+	 * @throws Exception
 	 */
-	private double ran() {
-		return 20000000d * (random.nextDouble() - 0.5d);
+	protected GeoTrack[] loadTracks(List<Series<GeoCoord>> positions, Range range) throws Exception {
+		List<GeoTrack> tracks = new ArrayList<GeoTrack>(positions.size());
+		ValueAccessMethods<GeoCoord> methods = db instanceof GeoCoordDatabase ? 
+				((GeoCoordDatabase) db).getGeoCoordAccessMethods() : null;
+		if (methods instanceof AccessMethodsForGeoCoord) {
+			for (Series<GeoCoord> position : positions)
+				tracks.add(new GeoTrack(position.getTimeDomain()));
+			((AccessMethodsForGeoCoord) methods).getTracks(positions, range, tracks);
+		} else {
+			for (Series<GeoCoord> position : positions)
+				tracks.add(GeoTrack.of(position.getValues(range)));
+		}
+		return tracks.toArray(new GeoTrack[tracks.size()]);
 	}
-
+	
 	/**
 	 * Return chronicles identified by their ID attributes.
 	 * Throw an exception when one is not found. Log an error
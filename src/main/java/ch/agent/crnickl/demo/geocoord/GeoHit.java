@@ -0,0 +1,74 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.geocoord;
+
+import java.util.Comparator;
+
+import ch.agent.crnickl.api.Series;
+import ch.agent.t2.time.TimeIndex;
+
+/**
+ * A GeoHit records that the position of a series at a time was near a
+ * point. A GeoHit is immutable.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public class GeoHit {
+	
+	/**
+	 * A comparator putting hits in time order.
+	 */
+	public static final Comparator<GeoHit> TIME_ORDER = new Comparator<GeoHit>() {
+		@Override
+		public int compare(GeoHit h1, GeoHit h2) {
+			return h1.getTime().compareTo(h2.getTime());
+		}
+	};
+	
+	private final Series<GeoCoord> series;
+	private final TimeIndex time;
+	private final double distance;
+	
+	public GeoHit(Series<GeoCoord> series, TimeIndex time, double distance) {
+		this.series = series;
+		this.time = time;
+		this.distance = distance;
+	}
+	
+	public Series<GeoCoord> getSeries() {
+		return series;
+	}
+	
+	public TimeIndex getTime() {
+		return time;
+	}
+	
+	/**
+	 * Return the distance to the point.
+	 * 
+	 * @return a distance in meters
+	 */
+	public double getDistance() {
+		return distance;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%s %s %.0fm", time, series, distance);
+	}
+	
+}
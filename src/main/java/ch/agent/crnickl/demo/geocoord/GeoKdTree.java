@@ -0,0 +1,306 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.geocoord;
+
+import java.util.Arrays;
+
+/**
+ * A GeoKdTree is a k-d tree of cartesian positions, each with an integer id. 
+ * It answers k-nearest and within-radius queries in logarithmic time on 
+ * average. A tree is built once, for example for a time slice of a fleet
+ * with {@link #of(GeoTrack[], int)}, or for all positions of a time bucket
+ * with the constructor, and is immutable.
+ * <p>
+ * The tree is kept in arrays: the median of each subrange is at the middle 
+ * of the subrange, and the split axis cycles through x, y, and z with the 
+ * depth.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public class GeoKdTree {
+	
+	private final double[][] coord;
+	private final int[] id;
+	private final int size;
+	
+	/**
+	 * Construct a tree. Arrays are not modified.
+	 * 
+	 * @param id array of ids
+	 * @param x array of x coordinates
+	 * @param y array of y coordinates
+	 * @param z array of z coordinates
+	 * @param size the number of positions in the arrays
+	 */
+	public GeoKdTree(int[] id, double[] x, double[] y, double[] z, int size) {
+		this.size = size;
+		this.id = Arrays.copyOf(id, size);
+		coord = new double[][] {Arrays.copyOf(x, size), Arrays.copyOf(y, size), Arrays.copyOf(z, size)};
+		build(0, size, 0);
+	}
+	
+	/**
+	 * Return a tree of the positions of a number of tracks at a time. The id
+	 * of a position is the index of its track. Tracks without a position at
+	 * the time are ignored.
+	 * 
+	 * @param tracks an array of tracks
+	 * @param offset a time domain offset
+	 * @return a tree
+	 */
+	public static GeoKdTree of(GeoTrack[] tracks, int offset) {
+		int[] id = new int[tracks.length];
+		double[] x = new double[tracks.length];
+		double[] y = new double[tracks.length];
+		double[] z = new double[tracks.length];
+		int size = 0;
+		for (int k = 0; k < tracks.length; k++) {
+			int i = tracks[k].indexOf(offset);
+			if (i >= 0) {
+				id[size] = k;
+				x[size] = tracks[k].getX(i);
+				y[size] = tracks[k].getY(i);
+				z[size] = tracks[k].getZ(i);
+				size++;
+			}
+		}
+		return new GeoKdTree(id, x, y, z, size);
+	}
+	
+	/**
+	 * Return the number of positions.
+	 * 
+	 * @return the number of positions
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Find the nearest positions to a point. Results are put in arrays,
+	 * nearest first.
+	 * 
+	 * @param ref a point
+	 * @param k the maximum number of positions to find
+	 * @param ids an array of length k or more taking ids
+	 * @param distances an array of length k or more taking distances
+	 * @return the number of positions found, k or less
+	 */
+	public int nearest(CartesianGeoCoord ref, int k, int[] ids, double[] distances) {
+		if (k < 1)
+			throw new IllegalArgumentException("k < 1");
+		// max-heap of squared distances, indexes into the tree
+		Heap heap = new Heap(Math.min(k, size));
+		nearest(new double[] {ref.getX(), ref.getY(), ref.getZ()}, heap, 0, size, 0);
+		int n = heap.size;
+		for (int i = n - 1; i >= 0; i--) {
+			ids[i] = id[heap.index[0]];
+			distances[i] = Math.sqrt(heap.d2[0]);
+			heap.pop();
+		}
+		return n;
+	}
+	
+	/**
+	 * Return the id of the nearest position to a point or -1 if the tree is 
+	 * empty.
+	 * 
+	 * @param ref a point
+	 * @return an id or -1
+	 */
+	public int nearest(CartesianGeoCoord ref) {
+		int[] ids = new int[1];
+		return nearest(ref, 1, ids, new double[1]) == 0 ? -1 : ids[0];
+	}
+	
+	/**
+	 * Return the ids of all positions not farther from a point than a 
+	 * distance. Ids are in no particular order.
+	 * 
+	 * @param ref a point
+	 * @param radius a distance
+	 * @return an array of ids
+	 */
+	public int[] within(CartesianGeoCoord ref, double radius) {
+		Ids found = new Ids();
+		within(new double[] {ref.getX(), ref.getY(), ref.getZ()}, radius * radius, found, 0, size, 0);
+		return Arrays.copyOf(found.id, found.size);
+	}
+	
+	private void within(double[] q, double r2, Ids found, int lo, int hi, int depth) {
+		if (lo >= hi)
+			return;
+		int mid = (lo + hi) >>> 1;
+		int axis = depth % 3;
+		if (distance2(q, mid) <= r2)
+			found.add(id[mid]);
+		double diff = q[axis] - coord[axis][mid];
+		if (diff <= 0 || diff * diff <= r2)
+			within(q, r2, found, lo, mid, depth + 1);
+		if (diff >= 0 || diff * diff <= r2)
+			within(q, r2, found, mid + 1, hi, depth + 1);
+	}
+	
+	private void nearest(double[] q, Heap heap, int lo, int hi, int depth) {
+		if (lo >= hi || heap.capacity == 0)
+			return;
+		int mid = (lo + hi) >>> 1;
+		int axis = depth % 3;
+		heap.offer(mid, distance2(q, mid));
+		double diff = q[axis] - coord[axis][mid];
+		int nearLo = diff <= 0 ? lo : mid + 1;
+		int nearHi = diff <= 0 ? mid : hi;
+		nearest(q, heap, nearLo, nearHi, depth + 1);
+		if (heap.size < heap.capacity || diff * diff < heap.d2[0]) {
+			if (diff <= 0)
+				nearest(q, heap, mid + 1, hi, depth + 1);
+			else
+				nearest(q, heap, lo, mid, depth + 1);
+		}
+	}
+	
+	private double distance2(double[] q, int i) {
+		double dx = q[0] - coord[0][i];
+		double dy = q[1] - coord[1][i];
+		double dz = q[2] - coord[2][i];
+		return dx * dx + dy * dy + dz * dz;
+	}
+	
+	/**
+	 * Arrange a subrange so that its median on the axis of the depth is at
+	 * the middle, with smaller values before and larger values after, and
+	 * recurse.
+	 */
+	private void build(int lo, int hi, int depth) {
+		if (hi - lo < 2)
+			return;
+		int mid = (lo + hi) >>> 1;
+		select(coord[depth % 3], lo, hi - 1, mid);
+		build(lo, mid, depth + 1);
+		build(mid + 1, hi, depth + 1);
+	}
+	
+	/**
+	 * Quickselect the element of rank k in a subrange.
+	 */
+	private void select(double[] a, int lo, int hi, int k) {
+		while (hi > lo) {
+			double pivot = a[(lo + hi) >>> 1];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (a[i] < pivot)
+					i++;
+				while (a[j] > pivot)
+					j--;
+				if (i <= j)
+					swap(i++, j--);
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+	
+	private void swap(int i, int j) {
+		for (double[] a : coord) {
+			double t = a[i];
+			a[i] = a[j];
+			a[j] = t;
+		}
+		int t = id[i];
+		id[i] = id[j];
+		id[j] = t;
+	}
+	
+	/**
+	 * A growable array of ids.
+	 */
+	private static class Ids {
+		private int[] id = new int[16];
+		private int size;
+		
+		public void add(int i) {
+			if (size == id.length)
+				id = Arrays.copyOf(id, 2 * size);
+			id[size++] = i;
+		}
+	}
+	
+	/**
+	 * A bounded max-heap of tree indexes keyed by squared distance.
+	 */
+	private static class Heap {
+		private final int capacity;
+		private final int[] index;
+		private final double[] d2;
+		private int size;
+		
+		public Heap(int capacity) {
+			this.capacity = capacity;
+			index = new int[capacity];
+			d2 = new double[capacity];
+		}
+		
+		public void offer(int i, double d) {
+			if (size < capacity) {
+				int c = size++;
+				while (c > 0 && d2[(c - 1) / 2] < d) {
+					int p = (c - 1) / 2;
+					index[c] = index[p];
+					d2[c] = d2[p];
+					c = p;
+				}
+				index[c] = i;
+				d2[c] = d;
+			} else if (d < d2[0]) {
+				sift(i, d);
+			}
+		}
+		
+		public void pop() {
+			size--;
+			if (size > 0)
+				sift(index[size], d2[size]);
+		}
+		
+		/**
+		 * Replace the root and sift down.
+		 */
+		private void sift(int i, double d) {
+			int c = 0;
+			while (true) {
+				int child = 2 * c + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && d2[child + 1] > d2[child])
+					child++;
+				if (d2[child] <= d)
+					break;
+				index[c] = index[child];
+				d2[c] = d2[child];
+				c = child;
+			}
+			index[c] = i;
+			d2[c] = d;
+		}
+	}
+	
+}
@@ -0,0 +1,308 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.geocoord;
+
+import java.util.Arrays;
+
+import ch.agent.t2.T2Exception;
+import ch.agent.t2.time.Range;
+import ch.agent.t2.time.TimeDomain;
+import ch.agent.t2.time.TimeIndex;
+import ch.agent.t2.timeseries.Observation;
+import ch.agent.t2.timeseries.TimeAddressable;
+
+/**
+ * A GeoTrack keeps cartesian positions in a time domain as parallel
+ * primitive arrays of time domain offsets and x, y, and z coordinates,
+ * sorted by offset. There is no object per position: a position is read 
+ * into a {@link CartesianGeoCoord} supplied by the caller, which can be
+ * reused as a flyweight, and analytics code can work directly on the raw 
+ * arrays.
+ * <p>
+ * A GeoTrack can be filled from and copied to a {@link TimeAddressable}. 
+ * As a {@link GeoCoordBatchHandler}, it can be filled directly by 
+ * {@link AccessMethodsForGeoCoord#scanValues}.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public class GeoTrack implements GeoCoordBatchHandler {
+	
+	private final TimeDomain domain;
+	private int[] offset;
+	private double[] x;
+	private double[] y;
+	private double[] z;
+	private int size;
+	
+	/**
+	 * Construct an empty track.
+	 * 
+	 * @param domain the time domain of the track
+	 */
+	public GeoTrack(TimeDomain domain) {
+		this(domain, 16);
+	}
+	
+	/**
+	 * Construct an empty track with an initial capacity.
+	 * 
+	 * @param domain the time domain of the track
+	 * @param capacity the initial capacity
+	 */
+	public GeoTrack(TimeDomain domain, int capacity) {
+		if (domain == null)
+			throw new IllegalArgumentException("domain null");
+		this.domain = domain;
+		capacity = Math.max(capacity, 1);
+		offset = new int[capacity];
+		x = new double[capacity];
+		y = new double[capacity];
+		z = new double[capacity];
+	}
+	
+	/**
+	 * Construct a track with the positions in a time series. Positions must
+	 * be {@link CartesianGeoCoord}. Missing values are skipped.
+	 * 
+	 * @param values a time series
+	 * @return a track
+	 */
+	public static GeoTrack of(TimeAddressable<GeoCoord> values) {
+		GeoTrack track = new GeoTrack(values.getTimeDomain());
+		for (Observation<GeoCoord> obs : values) {
+			if (!values.isMissing(obs.getValue())) {
+				CartesianGeoCoord coord = (CartesianGeoCoord) obs.getValue();
+				track.put(obs.getTime().asOffset(), coord.getX(), coord.getY(), coord.getZ());
+			}
+		}
+		return track;
+	}
+	
+	/**
+	 * Return the time domain.
+	 * 
+	 * @return the time domain
+	 */
+	public TimeDomain getTimeDomain() {
+		return domain;
+	}
+	
+	/**
+	 * Return the number of positions.
+	 * 
+	 * @return the number of positions
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Return the range of the track. The range is empty when there is no 
+	 * position.
+	 * 
+	 * @return a range
+	 * @throws T2Exception
+	 */
+	public Range getRange() throws T2Exception {
+		if (size == 0)
+			return new Range(domain);
+		return new Range(domain.timeFromOffset(offset[0]), domain.timeFromOffset(offset[size - 1]));
+	}
+	
+	/**
+	 * Add or replace a position. Adding positions in ascending time order 
+	 * is fastest.
+	 * 
+	 * @param t a time domain offset
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @param z the z coordinate
+	 */
+	public void put(int t, double x, double y, double z) {
+		int i = size;
+		if (size > 0 && t <= offset[size - 1]) {
+			i = indexOf(t);
+			if (i >= 0) {
+				set(i, x, y, z);
+				return;
+			}
+			i = -i - 1;
+		}
+		if (size == offset.length) {
+			int capacity = 2 * size;
+			offset = Arrays.copyOf(offset, capacity);
+			this.x = Arrays.copyOf(this.x, capacity);
+			this.y = Arrays.copyOf(this.y, capacity);
+			this.z = Arrays.copyOf(this.z, capacity);
+		}
+		if (i < size) {
+			System.arraycopy(offset, i, offset, i + 1, size - i);
+			System.arraycopy(this.x, i, this.x, i + 1, size - i);
+			System.arraycopy(this.y, i, this.y, i + 1, size - i);
+			System.arraycopy(this.z, i, this.z, i + 1, size - i);
+		}
+		offset[i] = t;
+		set(i, x, y, z);
+		size++;
+	}
+	
+	/**
+	 * Add or replace a position.
+	 * 
+	 * @param t a time index in the domain of the track
+	 * @param coord a position
+	 */
+	public void put(TimeIndex t, CartesianGeoCoord coord) {
+		if (!t.getTimeDomain().equals(domain))
+			throw new IllegalArgumentException("time domain " + t.getTimeDomain().getLabel());
+		put(t.asOffset(), coord.getX(), coord.getY(), coord.getZ());
+	}
+	
+	private void set(int i, double x, double y, double z) {
+		this.x[i] = x;
+		this.y[i] = y;
+		this.z[i] = z;
+	}
+	
+	/**
+	 * Append a batch of positions.
+	 */
+	@Override
+	public boolean handle(int[] offset, double[] x, double[] y, double[] z, int size) {
+		for (int i = 0; i < size; i++)
+			put(offset[i], x[i], y[i], z[i]);
+		return true;
+	}
+	
+	/**
+	 * Return the index of the position with a time domain offset. When 
+	 * there is no such position, return <code>-(insertion point) - 1</code>,
+	 * like {@link Arrays#binarySearch(int[], int)}.
+	 * 
+	 * @param t a time domain offset
+	 * @return the index of the position or a negative number
+	 */
+	public int indexOf(int t) {
+		return Arrays.binarySearch(offset, 0, size, t);
+	}
+	
+	/**
+	 * Return the time domain offset of a position.
+	 * 
+	 * @param i an index
+	 * @return a time domain offset
+	 */
+	public int getOffset(int i) {
+		check(i);
+		return offset[i];
+	}
+	
+	public double getX(int i) {
+		check(i);
+		return x[i];
+	}
+	
+	public double getY(int i) {
+		check(i);
+		return y[i];
+	}
+	
+	public double getZ(int i) {
+		check(i);
+		return z[i];
+	}
+	
+	/**
+	 * Read a position into a coordinate object, which is returned. 
+	 * The same object can be used for many positions.
+	 * 
+	 * @param i an index
+	 * @param coord a coordinate object
+	 * @return the coordinate object
+	 */
+	public CartesianGeoCoord get(int i, CartesianGeoCoord coord) {
+		check(i);
+		coord.setX(x[i]);
+		coord.setY(y[i]);
+		coord.setZ(z[i]);
+		return coord;
+	}
+	
+	/**
+	 * Return the array of offsets. Only the first {@link #size()} elements
+	 * are used. The array is not a copy and is replaced when the track grows.
+	 * 
+	 * @return the array of offsets
+	 */
+	public int[] getOffsets() {
+		return offset;
+	}
+	
+	/**
+	 * Return the array of x coordinates. See {@link #getOffsets()}.
+	 * 
+	 * @return the array of x coordinates
+	 */
+	public double[] getX() {
+		return x;
+	}
+	
+	/**
+	 * Return the array of y coordinates. See {@link #getOffsets()}.
+	 * 
+	 * @return the array of y coordinates
+	 */
+	public double[] getY() {
+		return y;
+	}
+	
+	/**
+	 * Return the array of z coordinates. See {@link #getOffsets()}.
+	 * 
+	 * @return the array of z coordinates
+	 */
+	public double[] getZ() {
+		return z;
+	}
+	
+	/**
+	 * Remove all positions. The capacity is kept.
+	 */
+	public void clear() {
+		size = 0;
+	}
+	
+	/**
+	 * Put all positions into a time series, as new {@link CartesianGeoCoord}
+	 * objects. The time series must be in the same time domain.
+	 * 
+	 * @param values a time series
+	 * @return the time series
+	 * @throws T2Exception
+	 */
+	public TimeAddressable<GeoCoord> copyTo(TimeAddressable<GeoCoord> values) throws T2Exception {
+		for (int i = 0; i < size; i++)
+			values.put(domain.timeFromOffset(offset[i]), new CartesianGeoCoord(x[i], y[i], z[i]));
+		return values;
+	}
+	
+	private void check(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException(i + " >= " + size);
+	}
+	
+}
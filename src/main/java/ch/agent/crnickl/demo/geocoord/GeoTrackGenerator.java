@@ -0,0 +1,176 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.geocoord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ch.agent.t2.time.TimeDomain;
+
+/**
+ * A GeoTrackGenerator invents tracks of things moving on the surface of the
+ * earth. A track is a random walk with velocity: at each time, the velocity
+ * changes a bit, within a maximum speed, the position moves by the
+ * velocity, and both are brought back to the surface of the earth. The
+ * track of each thing has its own random number generator, seeded from the
+ * seed of the generator and the number of the thing, so tracks do not
+ * depend on the number of threads.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public class GeoTrackGenerator {
+	
+	/**
+	 * The radius of the earth in meters.
+	 */
+	public static final double EARTH_RADIUS = 6371000d;
+	
+	/**
+	 * The default maximum speed, in meters per time step.
+	 */
+	public static final double DEFAULT_MAX_SPEED = 100000d;
+	
+	private final long seed;
+	private double maxSpeed;
+	
+	/**
+	 * Construct a generator.
+	 * 
+	 * @param seed a seed for random numbers
+	 */
+	public GeoTrackGenerator(long seed) {
+		this.seed = seed;
+		maxSpeed = DEFAULT_MAX_SPEED;
+	}
+	
+	/**
+	 * Set the maximum speed. Velocities change by at most a tenth of this 
+	 * speed at each step. The default is {@link #DEFAULT_MAX_SPEED}.
+	 * 
+	 * @param maxSpeed a positive number of meters per time step
+	 */
+	public void setMaxSpeed(double maxSpeed) {
+		if (!(maxSpeed > 0))
+			throw new IllegalArgumentException("maxSpeed <= 0");
+		this.maxSpeed = maxSpeed;
+	}
+	
+	/**
+	 * Generate the track of a thing, with a position at each offset of a 
+	 * range.
+	 * 
+	 * @param thing the number of the thing
+	 * @param domain the time domain
+	 * @param first the first time domain offset
+	 * @param last the last time domain offset
+	 * @return a track
+	 */
+	public GeoTrack generate(int thing, TimeDomain domain, int first, int last) {
+		Random random = new Random(seed * 1000003 + thing);
+		GeoTrack track = new GeoTrack(domain, Math.max(last - first + 1, 1));
+		double[] p = new double[] {random.nextGaussian(), random.nextGaussian(), random.nextGaussian()};
+		scale(p, EARTH_RADIUS);
+		double[] v = new double[3];
+		for (int i = 0; i < 3; i++)
+			v[i] = (random.nextDouble() - 0.5d) * maxSpeed;
+		tangent(v, p);
+		double change = maxSpeed / 10d;
+		for (int t = first; t <= last; t++) {
+			track.put(t, p[0], p[1], p[2]);
+			for (int i = 0; i < 3; i++)
+				v[i] += (random.nextDouble() - 0.5d) * change;
+			if (Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]) > maxSpeed)
+				scale(v, maxSpeed);
+			for (int i = 0; i < 3; i++)
+				p[i] += v[i];
+			scale(p, EARTH_RADIUS);
+			tangent(v, p);
+		}
+		return track;
+	}
+	
+	/**
+	 * Generate tracks of a number of things on a number of threads. Things
+	 * are numbered from zero.
+	 * 
+	 * @param things the number of things
+	 * @param domain the time domain
+	 * @param first the first time domain offset
+	 * @param last the last time domain offset
+	 * @param threads a positive number of threads
+	 * @return an array of tracks, in thing order
+	 * @throws Exception
+	 */
+	public GeoTrack[] generate(int things, final TimeDomain domain, final int first, final int last, int threads) throws Exception {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads < 1");
+		GeoTrack[] tracks = new GeoTrack[things];
+		if (threads == 1 || things < 2) {
+			for (int k = 0; k < things; k++)
+				tracks[k] = generate(k, domain, first, last);
+			return tracks;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, things));
+		try {
+			List<Future<GeoTrack>> futures = new ArrayList<Future<GeoTrack>>(things);
+			for (int k = 0; k < things; k++) {
+				final int thing = k;
+				futures.add(executor.submit(new Callable<GeoTrack>() {
+					@Override
+					public GeoTrack call() throws Exception {
+						return generate(thing, domain, first, last);
+					}
+				}));
+			}
+			for (int k = 0; k < things; k++)
+				tracks[k] = futures.get(k).get();
+			return tracks;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Scale a vector to a length.
+	 */
+	private void scale(double[] a, double length) {
+		double norm = Math.sqrt(a[0] * a[0] + a[1] * a[1] + a[2] * a[2]);
+		for (int i = 0; i < 3; i++)
+			a[i] *= length / norm;
+	}
+	
+	/**
+	 * Remove from a velocity its component along a position, leaving the
+	 * component tangent to the sphere.
+	 */
+	private void tangent(double[] v, double[] p) {
+		double dot = (v[0] * p[0] + v[1] * p[1] + v[2] * p[2]) / (p[0] * p[0] + p[1] * p[1] + p[2] * p[2]);
+		for (int i = 0; i < 3; i++)
+			v[i] -= dot * p[i];
+	}
+	
+}
@@ -0,0 +1,144 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.geocoord;
+
+import java.util.Arrays;
+
+/**
+ * A NearestThingEngine finds, at each time in a range, which of a number of
+ * things is nearest to a reference point. The tracks of all things are loaded
+ * beforehand into {@link GeoTrack}s in the same time domain. The engine does
+ * not access the database. It works on primitive arrays, one track at a time,
+ * and compares squared distances: a square root is only taken for the
+ * winners.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public class NearestThingEngine {
+	
+	private final GeoTrack[] tracks;
+	
+	/**
+	 * Construct an engine for a number of tracks. Things are identified by
+	 * the index of their track. When distances are equal, the thing with 
+	 * the lowest index wins.
+	 * 
+	 * @param tracks an array of tracks in the same time domain
+	 */
+	public NearestThingEngine(GeoTrack... tracks) {
+		for (GeoTrack track : tracks) {
+			if (!track.getTimeDomain().equals(tracks[0].getTimeDomain()))
+				throw new IllegalArgumentException("time domain " + track.getTimeDomain().getLabel());
+		}
+		this.tracks = tracks;
+	}
+	
+	/**
+	 * Return the first offset of the range common to all tracks. The range is
+	 * empty if the first offset is larger than the last offset.
+	 * 
+	 * @return a time domain offset
+	 */
+	public int getFirst() {
+		int first = Integer.MIN_VALUE;
+		for (GeoTrack track : tracks)
+			first = Math.max(first, track.size() == 0 ? Integer.MAX_VALUE : track.getOffset(0));
+		return first;
+	}
+	
+	/**
+	 * Return the last offset of the range common to all tracks. 
+	 * 
+	 * @return a time domain offset
+	 */
+	public int getLast() {
+		int last = Integer.MAX_VALUE;
+		for (GeoTrack track : tracks)
+			last = Math.min(last, track.size() == 0 ? Integer.MIN_VALUE : track.getOffset(track.size() - 1));
+		return last;
+	}
+	
+	/**
+	 * Return a spatial index of the positions of all things at a time. Ids 
+	 * in the index are track indexes. For large fleets, the index answers
+	 * k-nearest and within-radius queries without scanning all things.
+	 * 
+	 * @param offset a time domain offset
+	 * @return a k-d tree
+	 */
+	public GeoKdTree index(int offset) {
+		return GeoKdTree.of(tracks, offset);
+	}
+	
+	/**
+	 * Find the nearest thing at each offset in a range. Results are put
+	 * into arrays indexed by offset minus <code>first</code>. When no track
+	 * has a position at an offset, the winner is -1 and the distance is NaN.
+	 * 
+	 * @param ref the reference point
+	 * @param first the first time domain offset
+	 * @param last the last time domain offset
+	 * @param winner an array taking the indexes of the nearest things
+	 * @param distance an array taking the distances of the nearest things
+	 * @return the number of offsets with a winner
+	 */
+	public int nearest(CartesianGeoCoord ref, int first, int last, int[] winner, double[] distance) {
+		int length = last - first + 1;
+		if (length <= 0)
+			return 0;
+		if (winner.length < length || distance.length < length)
+			throw new IllegalArgumentException("arrays too short");
+		double rx = ref.getX();
+		double ry = ref.getY();
+		double rz = ref.getZ();
+		Arrays.fill(winner, 0, length, -1);
+		Arrays.fill(distance, 0, length, Double.POSITIVE_INFINITY);
+		for (int k = 0; k < tracks.length; k++) {
+			GeoTrack track = tracks[k];
+			int[] offset = track.getOffsets();
+			double[] x = track.getX();
+			double[] y = track.getY();
+			double[] z = track.getZ();
+			int start = track.indexOf(first);
+			if (start < 0)
+				start = -start - 1;
+			int size = track.size();
+			for (int i = start; i < size && offset[i] <= last; i++) {
+				double dx = x[i] - rx;
+				double dy = y[i] - ry;
+				double dz = z[i] - rz;
+				double d2 = dx * dx + dy * dy + dz * dz;
+				int j = offset[i] - first;
+				if (d2 < distance[j]) {
+					distance[j] = d2;
+					winner[j] = k;
+				}
+			}
+		}
+		int count = 0;
+		for (int j = 0; j < length; j++) {
+			if (winner[j] < 0)
+				distance[j] = Double.NaN;
+			else {
+				distance[j] = Math.sqrt(distance[j]);
+				count++;
+			}
+		}
+		return count;
+	}
+	
+}
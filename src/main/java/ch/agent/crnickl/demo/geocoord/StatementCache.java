@@ -0,0 +1,172 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.geocoord;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ch.agent.crnickl.T2DBException;
+import ch.agent.crnickl.api.DBObject;
+import ch.agent.crnickl.jdbc.JDBCDatabase;
+
+/**
+ * A StatementCache keeps prepared statements for a connection, keyed by SQL
+ * text. Each thread has its own statements, so a statement is never used by
+ * two threads at the same time, and access methods using the cache can be
+ * called from several threads, as long as the JDBC driver supports sharing
+ * the connection. The cache of each thread is bounded and the least recently
+ * used statement is closed when it is full. All statements of a thread are 
+ * closed and forgotten when the connection changes or is found closed.
+ * <p>
+ * Statements are returned with their parameters and batches from the
+ * previous use. Callers must set all parameters, clear batches which
+ * were not executed, and close result sets when done with them. A caller 
+ * must not use a statement again while a result set from the same 
+ * statement is still open: a method reading a result set must not call 
+ * methods which could use the same statement.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public class StatementCache {
+	
+	/**
+	 * The default maximum number of statements kept per thread.
+	 */
+	public static final int DEFAULT_CAPACITY = 32;
+	
+	/**
+	 * The statements of a thread, in least recently used order.
+	 */
+	@SuppressWarnings("serial")
+	private class Statements extends LinkedHashMap<String, PreparedStatement> {
+		
+		private Connection connection;
+		
+		private Statements() {
+			super(16, 0.75f, true);
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+			if (size() > capacity) {
+				close(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+		
+		private void closeAll() {
+			for (PreparedStatement stmt : values())
+				close(stmt);
+			clear();
+			connection = null;
+		}
+	}
+	
+	private final int capacity;
+	private final ThreadLocal<Statements> statements;
+	
+	/**
+	 * Construct a cache with the default capacity.
+	 */
+	public StatementCache() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Construct a cache.
+	 * 
+	 * @param capacity the maximum number of statements kept per thread
+	 */
+	public StatementCache(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity < 1");
+		this.capacity = capacity;
+		statements = new ThreadLocal<Statements>() {
+			@Override
+			protected Statements initialValue() {
+				return new Statements();
+			}
+		};
+	}
+	
+	/**
+	 * Return a prepared statement for a connection. The statement is taken
+	 * from the cache of the current thread, or prepared and added to it.
+	 * 
+	 * @param connection a connection
+	 * @param sql the SQL text of the statement
+	 * @return a prepared statement
+	 * @throws SQLException
+	 */
+	public PreparedStatement get(Connection connection, String sql) throws SQLException {
+		Statements cache = statements.get();
+		if (connection != cache.connection || connection.isClosed()) {
+			cache.closeAll();
+			cache.connection = connection;
+		}
+		PreparedStatement stmt = cache.get(sql);
+		if (stmt == null) {
+			stmt = connection.prepareStatement(sql);
+			cache.put(sql, stmt);
+		}
+		return stmt;
+	}
+	
+	/**
+	 * Return a prepared statement for the connection of the database of a
+	 * database object.
+	 * 
+	 * @param dbObject a database object in a {@link JDBCDatabase}
+	 * @param sql the SQL text of the statement
+	 * @return a prepared statement
+	 * @throws T2DBException
+	 * @throws SQLException
+	 */
+	public PreparedStatement get(DBObject dbObject, String sql) throws T2DBException, SQLException {
+		return get(((JDBCDatabase) dbObject.getSurrogate().getDatabase()).getConnection(), sql);
+	}
+	
+	/**
+	 * Close and forget all statements of the current thread. Statements of
+	 * other threads are closed when their connection is closed.
+	 */
+	public void clear() {
+		statements.get().closeAll();
+	}
+	
+	/**
+	 * Return the number of statements in the cache of the current thread.
+	 * 
+	 * @return the number of statements
+	 */
+	public int size() {
+		return statements.get().size();
+	}
+	
+	private void close(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			// ignore
+		}
+	}
+	
+}
@@ -0,0 +1,122 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.geocoord;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A TimePartitionedReport runs a report over a range of time domain offsets
+ * on a number of threads. The range is split into slices, the report of each
+ * slice is computed independently, and reports are printed in time order. A 
+ * slice is printed as soon as it and all slices before it are done.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public class TimePartitionedReport {
+	
+	/**
+	 * A Section computes the report for a slice of the range. It is called
+	 * concurrently for different slices.
+	 */
+	public interface Section {
+		
+		/**
+		 * Compute the report of a slice.
+		 * 
+		 * @param first the first time domain offset of the slice
+		 * @param last the last time domain offset of the slice
+		 * @param out a buffer taking the report
+		 * @throws Exception
+		 */
+		void report(int first, int last, StringBuilder out) throws Exception;
+		
+	}
+	
+	/**
+	 * The number of slices per thread, which evens out differences of
+	 * speed between slices.
+	 */
+	public static final int SLICES_PER_THREAD = 4;
+	
+	private final int threads;
+	
+	/**
+	 * Construct a report.
+	 * 
+	 * @param threads a positive number of threads
+	 */
+	public TimePartitionedReport(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads < 1");
+		this.threads = threads;
+	}
+	
+	/**
+	 * Run the report. With a single thread, the report is computed on the
+	 * calling thread.
+	 * 
+	 * @param out stream taking the output
+	 * @param first the first time domain offset
+	 * @param last the last time domain offset
+	 * @param section the report of a slice
+	 * @throws Exception
+	 */
+	public void run(PrintStream out, int first, int last, final Section section) throws Exception {
+		long length = (long) last - first + 1;
+		if (length <= 0)
+			return;
+		if (threads == 1) {
+			StringBuilder report = new StringBuilder();
+			section.report(first, last, report);
+			out.print(report);
+			return;
+		}
+		int slices = (int) Math.min(threads * SLICES_PER_THREAD, length);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, slices));
+		try {
+			List<Future<StringBuilder>> reports = new ArrayList<Future<StringBuilder>>(slices);
+			for (int i = 0; i < slices; i++) {
+				final int sliceFirst = (int) (first + length * i / slices);
+				final int sliceLast = (int) (first + length * (i + 1) / slices - 1);
+				reports.add(executor.submit(new Callable<StringBuilder>() {
+					@Override
+					public StringBuilder call() throws Exception {
+						StringBuilder report = new StringBuilder();
+						section.report(sliceFirst, sliceLast, report);
+						return report;
+					}
+				}));
+			}
+			for (Future<StringBuilder> report : reports)
+				out.print(report.get());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+}
@@ -17,14 +17,34 @@
 package ch.agent.crnickl.demo.stox;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import ch.agent.core.KeyedException;
 import ch.agent.crnickl.demo.stox.DemoConstants.K;
+import ch.agent.t2.T2Exception;
+import ch.agent.t2.time.TimeDomain;
+import ch.agent.t2.time.TimeIndex;
 
 /**
  * CSVFile hides the details of spreadsheets saved as text. Such
@@ -35,6 +55,18 @@ import ch.agent.crnickl.demo.stox.DemoConstants.K;
  * <li>all lines have the same number of fields,
  * <li>the first line contains headings, and each heading is unique
  * </ul>
+ * When the field separator is a single character and the input is a file in
+ * the file system (possibly found on the class path), the file is memory
+ * mapped and separators and line ends are located directly in the mapped
+ * bytes. Otherwise the input is read line by line and split with a regular
+ * expression. Both engines split lines the same way as
+ * {@link Pattern#split(CharSequence)}.
+ * <p>
+ * Rows are passed either as strings to a {@link RowVisitor} or as
+ * {@link Cells} to a {@link CellVisitor}. With memory mapping, the second
+ * kind of visitor can parse numbers and dates without any allocation. A
+ * memory mapped file can also be split into chunks scanned in parallel by
+ * several cell visitors.
  * 
  * @author Jean-Paul Vetterli
  */
@@ -54,10 +86,498 @@ public class CSVFile {
 		void visit(int lineNr, String... column) throws Exception;
 	}
 	
+	/**
+	 * CellVisitor is used by CSVFile to pass data without making strings.
+	 * The cells passed are reused for the next row and must not be kept.
+	 */
+	public interface CellVisitor {
+		/**
+		 * The method is invoked for each row of data.
+		 * 
+		 * @param lineNr the line number
+		 * @param cells the content of the columns, valid only during the call
+		 * @return true to continue scanning, false to stop
+		 * @throws Exception
+		 */
+		boolean visit(int lineNr, Cells cells) throws Exception;
+	}
+	
+	/**
+	 * CellVisitorFactory makes visitors for scanning chunks of a resource in
+	 * parallel.
+	 */
+	public interface CellVisitorFactory<T extends CellVisitor> {
+		/**
+		 * Return a new visitor for a chunk. Visitors must not share state.
+		 * 
+		 * @param chunk the number of the chunk, starting with 0 
+		 * @return a cell visitor
+		 * @throws KeyedException
+		 */
+		T create(int chunk) throws KeyedException;
+	}
+	
+	/**
+	 * Cells gives access to the columns of a row without copying them. The
+	 * content of a cell can be parsed directly into a double or a time index.
+	 * Cells are bytes and are decoded as characters only when a string is
+	 * requested.
+	 */
+	public static class Cells {
+		
+		private static final double[] POW10 = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+		};
+		private static final long MAX_EXACT = 1L << 53;
+		
+		/**
+		 * A view on a cell. Characters are bytes, which is correct only for
+		 * ASCII content. The view remains attached to a cell number and is
+		 * reused.
+		 */
+		private class Cell implements CharSequence {
+			private int index;
+			
+			private Cell(int index) {
+				this.index = index;
+			}
+
+			@Override
+			public int length() {
+				return Cells.this.length(index);
+			}
+
+			@Override
+			public char charAt(int i) {
+				return (char) (bytes[start(index) + i] & 0xff);
+			}
+
+			@Override
+			public CharSequence subSequence(int start, int end) {
+				return toString().substring(start, end);
+			}
+
+			@Override
+			public String toString() {
+				return getString(index);
+			}
+		}
+		
+		private Charset charset;
+		private byte[] bytes;
+		private int length;
+		private int[] cellEnd;
+		private int count;
+		private Cell[] views;
+		private IsoDateParser dates;
+		private boolean timing;
+		private long bytesRead;
+		private long lines;
+		private long totalCells;
+		private long dateTime;
+		private long valueTime;
+		
+		private Cells(Charset charset) {
+			this.charset = charset;
+			bytes = new byte[256];
+			cellEnd = new int[16];
+			views = new Cell[0];
+		}
+		
+		/**
+		 * Return the number of cells.
+		 * 
+		 * @return the number of cells
+		 */
+		public int size() {
+			return count;
+		}
+		
+		/**
+		 * Return the length in bytes of a cell.
+		 * 
+		 * @param i a cell number
+		 * @return the length of the cell
+		 */
+		public int length(int i) {
+			return cellEnd[check(i)] - start(i);
+		}
+		
+		/**
+		 * Return true if a cell is empty.
+		 * 
+		 * @param i a cell number
+		 * @return true if the cell is empty
+		 */
+		public boolean isEmpty(int i) {
+			return length(i) == 0;
+		}
+		
+		/**
+		 * Return a view on a cell. The view is valid only until the next row
+		 * and must be converted to a string to be kept. 
+		 * 
+		 * @param i a cell number
+		 * @return a view on the cell
+		 */
+		public CharSequence get(int i) {
+			check(i);
+			if (i >= views.length) {
+				Cell[] more = new Cell[count];
+				System.arraycopy(views, 0, more, 0, views.length);
+				for (int j = views.length; j < more.length; j++)
+					more[j] = new Cell(j);
+				views = more;
+			}
+			return views[i];
+		}
+		
+		/**
+		 * Return the content of a cell as a string.
+		 * 
+		 * @param i a cell number
+		 * @return a string
+		 */
+		public String getString(int i) {
+			int start = start(check(i));
+			return new String(bytes, start, cellEnd[i] - start, charset);
+		}
+		
+		/**
+		 * Return the content of all cells as strings.
+		 * 
+		 * @return an array of strings
+		 */
+		public String[] toStrings() {
+			String[] strings = new String[count];
+			for (int i = 0; i < count; i++)
+				strings[i] = getString(i);
+			return strings;
+		}
+		
+		/**
+		 * Parse a cell as a double. Return NaN if the cell does not contain
+		 * a decimal number, with optional sign, fraction, and exponent,
+		 * possibly surrounded by blanks. Numbers with up to 15 significant
+		 * digits and a small exponent are converted without making a string.
+		 * 
+		 * @param i a cell number
+		 * @return a double or NaN
+		 */
+		public double getDouble(int i) {
+			if (!timing)
+				return parseDouble(i);
+			long start = System.nanoTime();
+			double value = parseDouble(i);
+			valueTime += System.nanoTime() - start;
+			return value;
+		}
+		
+		private double parseDouble(int i) {
+			int pos = start(check(i));
+			int end = cellEnd[i];
+			while (pos < end && bytes[pos] == ' ')
+				pos++;
+			while (end > pos && bytes[end - 1] == ' ')
+				end--;
+			int from = pos;
+			boolean negative = false;
+			if (pos < end && (bytes[pos] == '-' || bytes[pos] == '+'))
+				negative = bytes[pos++] == '-';
+			long mantissa = 0;
+			int exponent = 0;
+			int digits = 0;
+			boolean exact = true;
+			boolean point = false;
+			for (; pos < end; pos++) {
+				int d = bytes[pos] - '0';
+				if (d >= 0 && d <= 9) {
+					digits++;
+					if (mantissa < MAX_EXACT / 10) {
+						mantissa = mantissa * 10 + d;
+						if (point)
+							exponent--;
+					} else {
+						exact = false;
+						if (!point)
+							exponent++;
+					}
+				} else if (bytes[pos] == '.' && !point)
+					point = true;
+				else
+					break;
+			}
+			if (digits == 0)
+				return Double.NaN;
+			if (pos < end && (bytes[pos] == 'e' || bytes[pos] == 'E')) {
+				pos++;
+				boolean negExp = false;
+				if (pos < end && (bytes[pos] == '-' || bytes[pos] == '+'))
+					negExp = bytes[pos++] == '-';
+				int exp = 0;
+				int expDigits = 0;
+				for (; pos < end && bytes[pos] >= '0' && bytes[pos] <= '9'; pos++) {
+					if (exp < 10000)
+						exp = exp * 10 + bytes[pos] - '0';
+					expDigits++;
+				}
+				if (expDigits == 0)
+					return Double.NaN;
+				exponent += negExp ? -exp : exp;
+			}
+			if (pos < end)
+				return Double.NaN;
+			double value;
+			if (exact && exponent >= -22 && exponent <= 22)
+				value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+			else
+				value = Math.abs(Double.parseDouble(new String(bytes, from, end - from, charset)));
+			return negative ? -value : value;
+		}
+		
+		/**
+		 * Return the date in a cell as a number <em>yyyymmdd</em>. Return -1
+		 * if the cell does not contain a date in the format
+		 * <em>yyyy-MM-dd</em>. Month and day are not validated.
+		 * 
+		 * @param i a cell number
+		 * @return a positive number or -1
+		 */
+		public int getDateKey(int i) {
+			int pos = start(check(i));
+			if (cellEnd[i] - pos != 10 || bytes[pos + 4] != '-' || bytes[pos + 7] != '-')
+				return -1;
+			int key = 0;
+			for (int j = 0; j < 10; j++) {
+				if (j == 4 || j == 7)
+					continue;
+				int d = bytes[pos + j] - '0';
+				if (d < 0 || d > 9)
+					return -1;
+				key = key * 10 + d;
+			}
+			return key;
+		}
+		
+		/**
+		 * Parse a cell as a time index in a given domain. Dates in the format
+		 * <em>yyyy-MM-dd</em> are converted by the {@link IsoDateParser} of
+		 * the domain, without making a string.
+		 * 
+		 * @param i a cell number
+		 * @param domain a time domain
+		 * @return a time index
+		 * @throws T2Exception
+		 */
+		public TimeIndex getTime(int i, TimeDomain domain) throws T2Exception {
+			long start = timing ? System.nanoTime() : 0;
+			if (dates == null || dates.getTimeDomain() != domain)
+				dates = IsoDateParser.get(domain);
+			int key = getDateKey(i);
+			TimeIndex time = key < 0 ? domain.time(getString(i)) : dates.time(key);
+			if (timing)
+				dateTime += System.nanoTime() - start;
+			return time;
+		}
+		
+		/**
+		 * Reset counters.
+		 * 
+		 * @param timing if true, measure the time spent converting dates and
+		 *        numbers
+		 */
+		private void reset(boolean timing) {
+			this.timing = timing;
+			bytesRead = 0;
+			lines = 0;
+			totalCells = 0;
+			dateTime = 0;
+			valueTime = 0;
+		}
+		
+		private int start(int i) {
+			return i == 0 ? 0 : cellEnd[i - 1] + 1;
+		}
+		
+		private int check(int i) {
+			if (i < 0 || i >= count)
+				throw new IndexOutOfBoundsException(K.COL_NUM_ERR.val(i, count));
+			return i;
+		}
+		
+		/**
+		 * Load a line and split it. Like {@link Pattern#split(CharSequence)},
+		 * trailing empty cells are dropped unless there is no separator at all.
+		 * 
+		 * @param buffer a buffer
+		 * @param start position of first byte of the line
+		 * @param end position after the last byte of the line
+		 * @param separator the separator byte
+		 */
+		private void load(ByteBuffer buffer, int start, int end, int separator) {
+			length = end - start;
+			if (length > bytes.length)
+				bytes = new byte[Math.max(length, 2 * bytes.length)];
+			buffer.position(start);
+			buffer.get(bytes, 0, length);
+			count = 0;
+			for (int i = 0; i < length; i++) {
+				if (bytes[i] == separator)
+					add(i);
+			}
+			add(length);
+			if (count > 1) {
+				while (count > 0 && cellEnd[count - 1] == (count > 1 ? cellEnd[count - 2] + 1 : 0))
+					count--;
+			}
+			lines++;
+			totalCells += count;
+		}
+		
+		/**
+		 * Load cells already split.
+		 * 
+		 * @param cells an array of strings
+		 */
+		private void load(String[] cells) {
+			length = 0;
+			count = 0;
+			for (String cell : cells) {
+				byte[] encoded = cell.getBytes(charset);
+				if (length + encoded.length + 1 > bytes.length)
+					bytes = Arrays.copyOf(bytes, Math.max(length + encoded.length + 1, 2 * bytes.length));
+				System.arraycopy(encoded, 0, bytes, length, encoded.length);
+				length += encoded.length;
+				add(length);
+				length++;
+			}
+			lines++;
+			totalCells += count;
+		}
+		
+		private void add(int end) {
+			if (count == cellEnd.length)
+				cellEnd = Arrays.copyOf(cellEnd, 2 * count);
+			cellEnd[count++] = end;
+		}
+	}
+	
+	/**
+	 * DateFilter keeps the settings and the state of a filter on dates. A
+	 * filter is copied at the beginning of each scan.
+	 */
+	private static class DateFilter {
+		private static final int PASS = 0;
+		private static final int SKIP = 1;
+		private static final int STOP = 2;
+		
+		private final int column;
+		private final int first;
+		private final int last;
+		private final boolean sorted;
+		private int previous;
+		private int direction;
+		
+		private DateFilter(int column, int first, int last, boolean sorted) {
+			this.column = column;
+			this.first = first;
+			this.last = last;
+			this.sorted = sorted;
+			previous = -1;
+		}
+		
+		private DateFilter copy() {
+			return new DateFilter(column, first, last, sorted);
+		}
+		
+		/**
+		 * Tell if a row with the given date is passed, skipped, or if the
+		 * scan must stop. When the input is sorted, the direction is
+		 * established with the first two different dates.
+		 * 
+		 * @param date a date as a number yyyymmdd or -1
+		 * @return one of PASS, SKIP, or STOP
+		 */
+		private int accept(int date) {
+			if (date < 0)
+				return PASS;
+			if (sorted && direction == 0 && previous >= 0 && date != previous)
+				direction = date > previous ? 1 : -1;
+			previous = date;
+			if (date < first)
+				return direction < 0 ? STOP : SKIP;
+			if (date > last)
+				return direction > 0 ? STOP : SKIP;
+			return PASS;
+		}
+	}
+	
+	/**
+	 * CountingInputStream counts the bytes read from an input stream.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count;
+		
+		private CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+	
+	/**
+	 * The size of the largest region of a file mapped at once.
+	 * No line can be longer.
+	 */
+	private static final int MAP_WINDOW = 64 * 1024 * 1024;
+	
+	/**
+	 * The number of chunks per thread when scanning in parallel.
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+	
+	/**
+	 * The smallest size of a chunk when scanning in parallel.
+	 */
+	private static final int MIN_CHUNK = 1024 * 1024;
+	
+	private static final String REGEX_META = "\\^$.|?*+()[]{}";
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+	
 	private Pattern fieldSeparator;
+	private Charset charset;
+	private int separatorByte;
+	private boolean mapping;
+	private Cells cells;
+	private DateFilter dateFilter;
+	private LoadListener listener;
 	
 	/**
-	 * Construct a CSVFile.
+	 * Construct a CSVFile. Memory mapping is enabled if the separator
+	 * is a single character.
 	 * 
 	 * @param fieldSeparator a pattern defining the field separator
 	 * @throws Exception
@@ -68,6 +588,67 @@ public class CSVFile {
 		} catch (PatternSyntaxException e) {
 			throw K.PATTERN_ERR.exception(e, fieldSeparator);
 		}
+		charset = Charset.defaultCharset();
+		separatorByte = literalSeparator(fieldSeparator, charset);
+		mapping = separatorByte >= 0;
+		cells = new Cells(charset);
+	}
+	
+	/**
+	 * Enable or disable memory mapping. Mapping cannot be enabled when the
+	 * field separator is not a single character.
+	 * 
+	 * @param enable if true enable mapping, else disable it
+	 * @return true if mapping is enabled
+	 */
+	public boolean setMemoryMapping(boolean enable) {
+		mapping = enable && separatorByte >= 0;
+		return mapping;
+	}
+	
+	/**
+	 * Return true if files are scanned with memory mapping.
+	 * 
+	 * @return true if mapping is enabled
+	 */
+	public boolean isMemoryMapping() {
+		return mapping;
+	}
+	
+	/**
+	 * Set a filter on dates. Only rows with a date within bounds are passed
+	 * to visitors. Dates are taken from the bytes of a column in the format
+	 * <em>yyyy-MM-dd</em>, before splitting the row, when the resource is
+	 * memory mapped. Rows where the column does not contain such a date, like
+	 * headings, are always passed. When the resource is sorted by date, in
+	 * ascending or descending order, the scan can stop at the first row past
+	 * the bounds.
+	 * 
+	 * @param column the offset of the column containing the date
+	 * @param first the first date passed, as a number yyyymmdd
+	 * @param last the last date passed, as a number yyyymmdd
+	 * @param sorted if true the resource must be sorted by date
+	 */
+	public void setDateFilter(int column, int first, int last, boolean sorted) {
+		if (column < 0)
+			throw new IllegalArgumentException(K.DATE_COL_NEG_ERR.val());
+		dateFilter = new DateFilter(column, first, last, sorted);
+	}
+	
+	/**
+	 * Remove the filter on dates.
+	 */
+	public void clearDateFilter() {
+		dateFilter = null;
+	}
+	
+	/**
+	 * Set a listener to receive the measurements of each scan, or remove it.
+	 * 
+	 * @param listener a listener or null
+	 */
+	public void setListener(LoadListener listener) {
+		this.listener = listener;
 	}
 	
 	/**
@@ -79,26 +660,57 @@ public class CSVFile {
 	 * @throws KeyedException
 	 */
 	public void scan(String resource, RowVisitor visitor) throws KeyedException {
-		InputStream inputStream = ClassLoader.getSystemClassLoader().getResourceAsStream(resource);
-		if (inputStream == null)
-			try {
-				inputStream = new FileInputStream(resource);
-			} catch (Exception e) {
-				throw K.FILE_READ_ERR.exception(e, resource);
-			}
-		scan(inputStream, resource, visitor);
+		scan(resource, visitor, null);
+	}
+	
+	/**
+	 * Scan a resource and pass cells to the visitor. Cells are not copied when
+	 * the file is memory mapped. This method is not thread safe, because the 
+	 * object passing cells is reused from one scan to the next.
+	 * 
+	 * @param resource
+	 *            the name of a resource on the class path or of a file in the file system
+	 * @param visitor a visitor
+	 * @throws KeyedException
+	 */
+	public void scan(String resource, CellVisitor visitor) throws KeyedException {
+		scan(resource, null, visitor);
+	}
+	
+	private void scan(String resource, RowVisitor rowVisitor, CellVisitor cellVisitor) throws KeyedException {
+		long start = System.nanoTime();
+		cells.reset(listener != null);
+		File file = mapping ? file(resource) : null;
+		if (file != null)
+			scan(file, resource, rowVisitor, cellVisitor);
+		else {
+			InputStream inputStream = ClassLoader.getSystemClassLoader().getResourceAsStream(resource);
+			if (inputStream == null)
+				try {
+					inputStream = new FileInputStream(resource);
+				} catch (Exception e) {
+					throw K.FILE_READ_ERR.exception(e, resource);
+				}
+			CountingInputStream input = new CountingInputStream(inputStream);
+			scan(input, resource, rowVisitor, cellVisitor);
+			cells.bytesRead = input.count;
+		}
+		if (listener != null)
+			listener.scanned(resource, cells.bytesRead, cells.lines, cells.totalCells, System.nanoTime() - start, cells.dateTime, cells.valueTime);
 	}
 	
 	/**
-	 * Scan an input stream.
+	 * Scan an input stream. One of the visitors must be null.
 	 * 
 	 * @param input an input stream
 	 * @param streamLabel a label to use in diagnostic messages
-	 * @param visitor a visitor
+	 * @param rowVisitor a row visitor or null
+	 * @param cellVisitor a cell visitor or null
 	 * @throws KeyedException
 	 */
-	private void scan(InputStream input, String streamLabel, RowVisitor visitor) throws KeyedException {
+	private void scan(InputStream input, String streamLabel, RowVisitor rowVisitor, CellVisitor cellVisitor) throws KeyedException {
 		int lineNr = 0;
+		DateFilter filter = dateFilter == null ? null : dateFilter.copy();
 		try {
 			BufferedReader r = new BufferedReader(new InputStreamReader(input));
 			while (true) {
@@ -107,11 +719,394 @@ public class CSVFile {
 					break;
 				lineNr++;
 				String[] fields = fieldSeparator.split(line);
-				visitor.visit(lineNr, fields);
+				if (filter != null) {
+					int verdict = filter.accept(filter.column < fields.length ? IsoDateParser.key(fields[filter.column]) : -1);
+					if (verdict == DateFilter.STOP)
+						break;
+					if (verdict == DateFilter.SKIP)
+						continue;
+				}
+				if (rowVisitor != null)
+					rowVisitor.visit(lineNr, fields);
+				else {
+					cells.load(fields);
+					if (!cellVisitor.visit(lineNr, cells))
+						break;
+				}
 			}
 			r.close();
 		} catch (Exception e) {
 			throw K.FILE_READ_LINE_ERR.exception(e, streamLabel, lineNr);
 		}
 	}
+	
+	/**
+	 * Scan a resource in parallel and pass cells to visitors. The resource is
+	 * split into chunks at line boundaries and each chunk is scanned by its
+	 * own visitor on a pool of threads. Line numbers are the same as in a
+	 * sequential scan. A visitor returning false stops the scan of its own
+	 * chunk only.
+	 * <p>
+	 * When the resource cannot be memory mapped or when less than two threads
+	 * are requested, the resource is scanned sequentially by a single visitor.
+	 * 
+	 * @param resource
+	 *            the name of a resource on the class path or of a file in the file system
+	 * @param threads the number of threads
+	 * @param factory a factory making one visitor per chunk
+	 * @return the list of visitors in chunk order
+	 * @throws KeyedException
+	 */
+	public <T extends CellVisitor> List<T> scanInParallel(String resource, int threads, CellVisitorFactory<T> factory) throws KeyedException {
+		long start = System.nanoTime();
+		File file = mapping && threads > 1 ? file(resource) : null;
+		if (file == null) {
+			T visitor = factory.create(0);
+			scan(resource, visitor);
+			return Collections.singletonList(visitor);
+		}
+		FileInputStream input = null;
+		ExecutorService executor = null;
+		try {
+			input = new FileInputStream(file);
+			final FileChannel channel = input.getChannel();
+			final long[] bounds = chunkBounds(channel, threads * CHUNKS_PER_THREAD);
+			int chunkCount = bounds.length - 1;
+			executor = Executors.newFixedThreadPool(Math.min(threads, chunkCount));
+			
+			// first pass: count lines, to number them correctly in the second pass
+			List<Future<Integer>> lineCounts = new ArrayList<Future<Integer>>(chunkCount);
+			for (int i = 0; i < chunkCount; i++) {
+				final int chunk = i;
+				lineCounts.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						return countLines(channel, bounds[chunk], bounds[chunk + 1]);
+					}
+				}));
+			}
+			int[] lineNr = new int[chunkCount];
+			for (int i = 1; i < chunkCount; i++)
+				lineNr[i] = lineNr[i - 1] + lineCounts.get(i - 1).get();
+			
+			// second pass: scan
+			final String label = resource;
+			List<T> visitors = new ArrayList<T>(chunkCount);
+			List<Future<Void>> scans = new ArrayList<Future<Void>>(chunkCount);
+			final Cells[] chunkCells = new Cells[chunkCount];
+			for (int i = 0; i < chunkCount; i++) {
+				final int chunk = i;
+				final int firstLineNr = lineNr[i];
+				final T visitor = factory.create(i);
+				visitors.add(visitor);
+				chunkCells[i] = new Cells(charset);
+				chunkCells[i].reset(listener != null);
+				scans.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						scan(channel, bounds[chunk], bounds[chunk + 1], firstLineNr, label, 
+								chunkCells[chunk], null, visitor);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> scan : scans)
+				scan.get();
+			if (listener != null) {
+				long bytes = 0, lines = 0, cellCount = 0, dateTime = 0, valueTime = 0;
+				for (Cells c : chunkCells) {
+					bytes += c.bytesRead;
+					lines += c.lines;
+					cellCount += c.totalCells;
+					dateTime += c.dateTime;
+					valueTime += c.valueTime;
+				}
+				listener.scanned(resource, bytes, lines, cellCount, System.nanoTime() - start, dateTime, valueTime);
+			}
+			return visitors;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof KeyedException)
+				throw (KeyedException) e.getCause();
+			throw K.FILE_READ_ERR.exception(e.getCause(), resource);
+		} catch (KeyedException e) {
+			throw e;
+		} catch (Exception e) {
+			throw K.FILE_READ_ERR.exception(e, resource);
+		} finally {
+			if (executor != null)
+				executor.shutdownNow();
+			try {
+				if (input != null)
+					input.close();
+			} catch (Exception e) {
+				// ignore
+			}
+		}
+	}
+	
+	/**
+	 * Scan a file using memory mapping. One of the visitors must be null.
+	 * 
+	 * @param file a file
+	 * @param label a label to use in diagnostic messages
+	 * @param rowVisitor a row visitor or null
+	 * @param cellVisitor a cell visitor or null
+	 * @throws KeyedException
+	 */
+	private void scan(File file, String label, RowVisitor rowVisitor, CellVisitor cellVisitor) throws KeyedException {
+		FileInputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			FileChannel channel = input.getChannel();
+			scan(channel, 0, channel.size(), 0, label, cells, rowVisitor, cellVisitor);
+		} catch (KeyedException e) {
+			throw e;
+		} catch (Exception e) {
+			throw K.FILE_READ_ERR.exception(e, label);
+		} finally {
+			try {
+				if (input != null)
+					input.close();
+			} catch (Exception e) {
+				// ignore
+			}
+		}
+	}
+	
+	/**
+	 * Scan a region of a file using memory mapping. The region is mapped in
+	 * windows of at most {@link #MAP_WINDOW} bytes. A window always starts at
+	 * the beginning of a line. The region must start at the beginning of a
+	 * line and end at the end of a line or of the file. One of the visitors
+	 * must be null.
+	 * 
+	 * @param channel a file channel
+	 * @param from the position of the beginning of the region 
+	 * @param to the position after the end of the region
+	 * @param lineNr the number of the line preceding the region
+	 * @param label a label to use in diagnostic messages
+	 * @param cells the object used to pass cells
+	 * @param rowVisitor a row visitor or null
+	 * @param cellVisitor a cell visitor or null
+	 * @throws KeyedException
+	 */
+	private void scan(FileChannel channel, long from, long to, int lineNr, String label, Cells cells, 
+			RowVisitor rowVisitor, CellVisitor cellVisitor) throws KeyedException {
+		DateFilter filter = dateFilter == null ? null : dateFilter.copy();
+		try {
+			long position = from;
+			boolean scanning = true;
+			while (scanning && position < to) {
+				int length = (int) Math.min(MAP_WINDOW, to - position);
+				boolean lastWindow = position + length == to;
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				int start = 0;
+				while (start < length) {
+					int end = endOfLine(buffer, start, length);
+					// a line end on the window edge could be the first half of CR LF
+					if (!lastWindow && end >= length - 1)
+						break;
+					lineNr++;
+					if (filter != null) {
+						int verdict = filter.accept(dateKey(buffer, start, end, filter.column, (byte) separatorByte));
+						if (verdict == DateFilter.STOP) {
+							scanning = false;
+							break;
+						}
+						if (verdict == DateFilter.SKIP) {
+							start = startOfNextLine(buffer, end, length);
+							continue;
+						}
+					}
+					cells.load(buffer, start, end, separatorByte);
+					start = startOfNextLine(buffer, end, length);
+					if (rowVisitor != null)
+						rowVisitor.visit(lineNr, cells.toStrings());
+					else if (!cellVisitor.visit(lineNr, cells)) {
+						scanning = false;
+						break;
+					}
+				}
+				if (scanning && start == 0)
+					throw new IllegalStateException(K.LINE_LENGTH_ERR.val(MAP_WINDOW));
+				// when stopped early, this counts the part of the window processed
+				position += start;
+			}
+			cells.bytesRead += position - from;
+		} catch (Exception e) {
+			throw K.FILE_READ_LINE_ERR.exception(e, label, lineNr);
+		}
+	}
+	
+	/**
+	 * Split a file into chunks of roughly equal size. Chunks end with a LF
+	 * or at the end of the file. Chunks are not smaller than 
+	 * {@link #MIN_CHUNK} bytes, except the last.
+	 * 
+	 * @param channel a file channel
+	 * @param count the number of chunks wanted
+	 * @return an array with the position of each chunk followed by the size of the file
+	 * @throws IOException
+	 */
+	private static long[] chunkBounds(FileChannel channel, int count) throws IOException {
+		long size = channel.size();
+		count = (int) Math.max(1, Math.min(count, size / MIN_CHUNK));
+		long[] bounds = new long[count + 1];
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		int n = 1;
+		for (int i = 1; i < count; i++) {
+			long position = Math.max(size * i / count, bounds[n - 1]);
+			long bound = size;
+			scan: while (position < size) {
+				buffer.clear();
+				int read = channel.read(buffer, position);
+				if (read <= 0)
+					break;
+				for (int j = 0; j < read; j++) {
+					if (buffer.get(j) == LF) {
+						bound = position + j + 1;
+						break scan;
+					}
+				}
+				position += read;
+			}
+			if (bound > bounds[n - 1] && bound < size)
+				bounds[n++] = bound;
+		}
+		bounds[n++] = size;
+		return n == bounds.length ? bounds : Arrays.copyOf(bounds, n);
+	}
+	
+	/**
+	 * Count the lines in a region of a file. A line end is one of LF, CR, or CR LF.
+	 * 
+	 * @param channel a file channel
+	 * @param from the position of the beginning of the region
+	 * @param to the position after the end of the region
+	 * @return the number of lines
+	 * @throws IOException
+	 */
+	private static int countLines(FileChannel channel, long from, long to) throws IOException {
+		int count = 0;
+		boolean cr = false;
+		for (long position = from; position < to; position += MAP_WINDOW) {
+			int length = (int) Math.min(MAP_WINDOW, to - position);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			for (int i = 0; i < length; i++) {
+				byte b = buffer.get(i);
+				if (b == LF) {
+					if (!cr)
+						count++;
+					cr = false;
+				} else if (b == CR) {
+					count++;
+					cr = true;
+				} else
+					cr = false;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Return the date in a column of a line as a number yyyymmdd, or -1 if
+	 * the column does not contain a date in the format yyyy-MM-dd.
+	 */
+	private static int dateKey(ByteBuffer buffer, int start, int end, int column, byte separator) {
+		int pos = start;
+		for (int i = 0; i < column; i++) {
+			while (pos < end && buffer.get(pos) != separator)
+				pos++;
+			if (pos == end)
+				return -1;
+			pos++;
+		}
+		if (pos + 10 > end || pos + 10 < end && buffer.get(pos + 10) != separator)
+			return -1;
+		if (buffer.get(pos + 4) != '-' || buffer.get(pos + 7) != '-')
+			return -1;
+		int key = 0;
+		for (int i = 0; i < 10; i++) {
+			if (i == 4 || i == 7)
+				continue;
+			int d = buffer.get(pos + i) - '0';
+			if (d < 0 || d > 9)
+				return -1;
+			key = key * 10 + d;
+		}
+		return key;
+	}
+	
+	/**
+	 * Return the position of the first CR or LF at or after start, or limit
+	 * if there is none.
+	 */
+	private static int endOfLine(ByteBuffer buffer, int start, int limit) {
+		for (int i = start; i < limit; i++) {
+			byte b = buffer.get(i);
+			if (b == LF || b == CR)
+				return i;
+		}
+		return limit;
+	}
+	
+	/**
+	 * Return the position after the line end at position end. A line end is
+	 * one of LF, CR, or CR LF.
+	 */
+	private static int startOfNextLine(ByteBuffer buffer, int end, int limit) {
+		if (end < limit && buffer.get(end) == CR)
+			end++;
+		if (end < limit && buffer.get(end) == LF)
+			end++;
+		return end;
+	}
+	
+	/**
+	 * Find the file for a resource on the class path or in the file system.
+	 * Return null if the resource is not a file.
+	 * 
+	 * @param resource the name of a resource
+	 * @return a file or null
+	 */
+	private static File file(String resource) {
+		URL url = ClassLoader.getSystemClassLoader().getResource(resource);
+		File file = null;
+		try {
+			if (url == null)
+				file = new File(resource);
+			else if ("file".equals(url.getProtocol()))
+				file = new File(url.toURI());
+		} catch (Exception e) {
+			// fall through
+		}
+		return file != null && file.isFile() ? file : null;
+	}
+	
+	/**
+	 * Return the byte value of a separator which is a single character,
+	 * possibly escaped, or -1. The byte value is available only when the
+	 * character and line ends are encoded as single bytes in the charset.
+	 * 
+	 * @param separator a regular expression
+	 * @param charset the charset of input files
+	 * @return a byte value or -1
+	 */
+	private static int literalSeparator(String separator, Charset charset) {
+		char c;
+		if (separator.length() == 1 && REGEX_META.indexOf(separator.charAt(0)) < 0)
+			c = separator.charAt(0);
+		else if (separator.length() == 2 && separator.charAt(0) == '\\' && REGEX_META.indexOf(separator.charAt(1)) >= 0)
+			c = separator.charAt(1);
+		else if (separator.equals("\\t"))
+			c = '\t';
+		else
+			return -1;
+		if (c == CR || c == LF || c >= 0x80)
+			return -1;
+		byte[] encoded = (c + "\r\n").getBytes(charset);
+		if (encoded.length != 3 || encoded[0] != c || encoded[1] != CR || encoded[2] != LF)
+			return -1;
+		return c;
+	}
 }
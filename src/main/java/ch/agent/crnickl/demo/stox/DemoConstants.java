@@ -47,6 +47,10 @@ public class DemoConstants extends KeyedMessage {
 		CHART_TEXT3_PARAM,
 		CHART_WIDTH_PARAM,
 		RANGE_PARAM,
+		THREADS_PARAM,
+		INCREMENTAL_PARAM,
+		PIPELINE_PARAM,
+		STATISTICS_PARAM,
 		
 		// names of database objects:
 		
@@ -66,21 +70,30 @@ public class DemoConstants extends KeyedMessage {
 		RATE_SER,
 		SPLITS_SER,
 		VOLUME_SER,
+		OPEN_SER,
+		HIGH_SER,
+		LOW_SER,
+		ADJ_CLOSE_SER,
 		
 		// error message symbols:
 		
+		BATCH_SIZE_NEG_ERR,
 		CHART_EXRATE_RANGE_ERR,
 		CHART_SUBPLOT_ERR,
 		CHART_SUPPORT_ERR,
 		COL_COUNT_ERR,
+		COL_NUM_ERR,
 		DATE_COL_ERR,
 		DATE_COL_NEG_ERR,
 		FILE_READ_ERR,
 		FILE_READ_LINE_ERR,
+		HEADING_ERR,
 		JFC_OUTPUT_ERR,
 		JFC_PERIOD_ERR,
 		JFC_TIMECLASS_ERR,
 		JFC_USEC_ERR,
+		LINE_LENGTH_ERR,
+		LOAD_INTERRUPTED_ERR,
 		PARAMETER_ERR,
 		PATTERN_ERR,
 		RANGE_DATES_ERR,
@@ -89,6 +102,7 @@ public class DemoConstants extends KeyedMessage {
 		SER_COL_ERR,
 		SER_COL_NEG_ERR,
 		SER_NUM_ERR,
+		THREADS_ERR,
 		TOO_LATE_ERR,
 		;
 		
@@ -0,0 +1,231 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.stox;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ch.agent.t2.T2Exception;
+import ch.agent.t2.applied.Workday;
+import ch.agent.t2.time.Day;
+import ch.agent.t2.time.TimeDomain;
+import ch.agent.t2.time.TimeIndex;
+
+/**
+ * An IsoDateParser converts dates in the format <em>yyyy-MM-dd</em> into
+ * time indexes of a time domain. In the {@link Day} and {@link Workday}
+ * domains, offsets are computed arithmetically from the date, after checking
+ * against the domain with two reference dates. Dates which cannot be
+ * computed that way, like week-end days in the workday domain, are passed to
+ * the domain.
+ * <p>
+ * Results are kept in a bounded memo, so a date seen before is not parsed
+ * again. There is one parser per domain, shared by all users, and it is safe
+ * to use it from multiple threads.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public class IsoDateParser {
+	
+	private static final int MEMO_BITS = 13;
+	private static final int NONE = 0;
+	private static final int DAY = 1;
+	private static final int WORKDAY = 2;
+	private static final int REF_1 = 20000103;
+	private static final int REF_2 = 20110831;
+	
+	private static final ConcurrentMap<TimeDomain, IsoDateParser> parsers = 
+			new ConcurrentHashMap<TimeDomain, IsoDateParser>();
+	
+	/**
+	 * An entry of the memo. Entries are immutable and can be replaced
+	 * without synchronization.
+	 */
+	private static class Entry {
+		private final int date;
+		private final TimeIndex time;
+		
+		private Entry(int date, TimeIndex time) {
+			this.date = date;
+			this.time = time;
+		}
+	}
+	
+	/**
+	 * Return the parser for a time domain.
+	 * 
+	 * @param domain a time domain
+	 * @return a parser
+	 */
+	public static IsoDateParser get(TimeDomain domain) {
+		IsoDateParser parser = parsers.get(domain);
+		if (parser == null) {
+			parser = new IsoDateParser(domain);
+			IsoDateParser existing = parsers.putIfAbsent(domain, parser);
+			if (existing != null)
+				parser = existing;
+		}
+		return parser;
+	}
+	
+	/**
+	 * Return a date as a number <em>yyyymmdd</em>. Return -1 if the input
+	 * is not a date in the format <em>yyyy-MM-dd</em>. Month and day are not
+	 * validated.
+	 * 
+	 * @param date a character sequence
+	 * @return a positive number or -1
+	 */
+	public static int key(CharSequence date) {
+		if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-')
+			return -1;
+		int key = 0;
+		for (int i = 0; i < 10; i++) {
+			if (i == 4 || i == 7)
+				continue;
+			int d = date.charAt(i) - '0';
+			if (d < 0 || d > 9)
+				return -1;
+			key = key * 10 + d;
+		}
+		return key;
+	}
+	
+	private final TimeDomain domain;
+	private final Entry[] memo;
+	private int mode;
+	private long reference;
+	private long referenceOffset;
+	
+	private IsoDateParser(TimeDomain domain) {
+		this.domain = domain;
+		memo = new Entry[1 << MEMO_BITS];
+		if (domain.equals(Day.DOMAIN))
+			mode = DAY;
+		else if (domain.equals(Workday.DOMAIN))
+			mode = WORKDAY;
+		if (mode != NONE) {
+			try {
+				reference = count(REF_1);
+				referenceOffset = domain.time(format(REF_1)).asOffset();
+				if (domain.time(format(REF_2)).asOffset() != referenceOffset + count(REF_2) - reference)
+					mode = NONE;
+			} catch (T2Exception e) {
+				mode = NONE;
+			}
+		}
+	}
+	
+	/**
+	 * Return the time domain.
+	 * 
+	 * @return the time domain
+	 */
+	public TimeDomain getTimeDomain() {
+		return domain;
+	}
+	
+	/**
+	 * Convert a date into a time index. Input not in the format
+	 * <em>yyyy-MM-dd</em> is passed to the domain.
+	 * 
+	 * @param date a character sequence
+	 * @return a time index
+	 * @throws T2Exception
+	 */
+	public TimeIndex time(CharSequence date) throws T2Exception {
+		int key = key(date);
+		return key < 0 ? domain.time(date.toString()) : time(key);
+	}
+	
+	/**
+	 * Convert a date given as a number <em>yyyymmdd</em> into a time index.
+	 * 
+	 * @param date a positive number
+	 * @return a time index
+	 * @throws T2Exception
+	 */
+	public TimeIndex time(int date) throws T2Exception {
+		int slot = (date * 0x9E3779B1) >>> (32 - MEMO_BITS);
+		Entry entry = memo[slot];
+		if (entry != null && entry.date == date)
+			return entry.time;
+		TimeIndex time = compute(date);
+		memo[slot] = new Entry(date, time);
+		return time;
+	}
+	
+	private TimeIndex compute(int date) throws T2Exception {
+		long count = count(date);
+		if (count == Long.MIN_VALUE)
+			return domain.time(format(date));
+		return domain.timeFromOffset(referenceOffset + count - reference);
+	}
+	
+	/**
+	 * Return the number of days or workdays since 1970-01-01, or
+	 * Long.MIN_VALUE if it cannot be computed.
+	 */
+	private long count(int date) {
+		int y = date / 10000;
+		int m = date / 100 % 100;
+		int d = date % 100;
+		if (mode == NONE || m < 1 || m > 12 || d < 1 || d > daysInMonth(y, m))
+			return Long.MIN_VALUE;
+		long days = epochDay(y, m, d);
+		if (mode == DAY)
+			return days;
+		// 1970-01-05 is a Monday
+		long k = days - 4;
+		long weeks = k >= 0 ? k / 7 : (k - 6) / 7;
+		int dayOfWeek = (int) (k - 7 * weeks);
+		if (dayOfWeek > 4)
+			return Long.MIN_VALUE;
+		return weeks * 5 + dayOfWeek;
+	}
+	
+	private static long epochDay(int y, int m, int d) {
+		// days from civil, proleptic Gregorian calendar
+		if (m <= 2)
+			y--;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yoe = y - era * 400;
+		long doy = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5 + d - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+	
+	private static int daysInMonth(int y, int m) {
+		if (m == 2)
+			return (y % 4 == 0 && (y % 100 != 0 || y % 400 == 0)) ? 29 : 28;
+		return m == 4 || m == 6 || m == 9 || m == 11 ? 30 : 31;
+	}
+	
+	private static String format(int date) {
+		char[] c = new char[10];
+		for (int i = 9; i >= 0; i--) {
+			if (i == 4 || i == 7)
+				c[i] = '-';
+			else {
+				c[i] = (char) ('0' + date % 10);
+				date /= 10;
+			}
+		}
+		return new String(c);
+	}
+	
+}
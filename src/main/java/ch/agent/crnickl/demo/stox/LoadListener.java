@@ -0,0 +1,60 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.stox;
+
+/**
+ * A LoadListener receives measurements taken while loading data. Files are
+ * identified by resource name and series by full name. Times are in
+ * nanoseconds. Methods can be called from multiple threads.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public interface LoadListener {
+	
+	/**
+	 * A resource has been scanned.
+	 * 
+	 * @param resource the name of the resource
+	 * @param bytes the number of bytes read
+	 * @param lines the number of lines read
+	 * @param cells the number of cells split from lines
+	 * @param scanTime the time spent scanning, including visitors
+	 * @param dateTime the part of the scan time spent converting dates
+	 * @param valueTime the part of the scan time spent converting numbers
+	 */
+	void scanned(String resource, long bytes, long lines, long cells, long scanTime, long dateTime, long valueTime);
+	
+	/**
+	 * Observations have been passed to a series.
+	 * 
+	 * @param series the name of the series
+	 * @param values the number of observations
+	 * @param time the time spent setting and scanning values 
+	 * @param scanTime the part of the time spent in the value scanner of the
+	 *        series, for values which are not plain numbers
+	 */
+	void written(String series, int values, long time, long scanTime);
+	
+	/**
+	 * Updates have been applied to a series.
+	 * 
+	 * @param series the name of the series
+	 * @param time the time spent applying updates
+	 */
+	void applied(String series, long time);
+	
+}
@@ -0,0 +1,158 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.stox;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LoadStatistics accumulates the measurements of a load, per file and per
+ * series, and prints a summary report.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public class LoadStatistics implements LoadListener {
+	
+	private static class FileStatistics {
+		private long bytes;
+		private long lines;
+		private long cells;
+		private long scanTime;
+		private long dateTime;
+		private long valueTime;
+	}
+	
+	private static class SeriesStatistics {
+		private long values;
+		private long writeTime;
+		private long scanTime;
+		private long applyTime;
+	}
+	
+	private Map<String, FileStatistics> files;
+	private Map<String, SeriesStatistics> series;
+	
+	/**
+	 * Construct an empty statistics object.
+	 */
+	public LoadStatistics() {
+		files = new LinkedHashMap<String, FileStatistics>();
+		series = new LinkedHashMap<String, SeriesStatistics>();
+	}
+	
+	@Override
+	public synchronized void scanned(String resource, long bytes, long lines, long cells, long scanTime, long dateTime, long valueTime) {
+		FileStatistics s = files.get(resource);
+		if (s == null) {
+			s = new FileStatistics();
+			files.put(resource, s);
+		}
+		s.bytes += bytes;
+		s.lines += lines;
+		s.cells += cells;
+		s.scanTime += scanTime;
+		s.dateTime += dateTime;
+		s.valueTime += valueTime;
+	}
+	
+	@Override
+	public synchronized void written(String name, int values, long time, long scanTime) {
+		SeriesStatistics s = get(name);
+		s.values += values;
+		s.writeTime += time - scanTime;
+		s.scanTime += scanTime;
+	}
+	
+	@Override
+	public synchronized void applied(String name, long time) {
+		get(name).applyTime += time;
+	}
+	
+	private SeriesStatistics get(String name) {
+		SeriesStatistics s = series.get(name);
+		if (s == null) {
+			s = new SeriesStatistics();
+			series.put(name, s);
+		}
+		return s;
+	}
+	
+	/**
+	 * Remove all measurements.
+	 */
+	public synchronized void clear() {
+		files.clear();
+		series.clear();
+	}
+	
+	/**
+	 * Print a report with one line per file, one line per series, and
+	 * totals. Times are in milliseconds. For files, the date and value times
+	 * are the parts of the scan time spent converting dates and numbers. For
+	 * series, the set time is spent passing values to the series, the 
+	 * scanValue time is spent in the value scanner of the series, for values
+	 * which are not plain numbers, and the apply time is spent writing to the
+	 * database.
+	 * 
+	 * @param out a print stream
+	 */
+	public synchronized void report(PrintStream out) {
+		FileStatistics fileTotal = new FileStatistics();
+		out.println(String.format("%-30s %12s %10s %12s %10s %10s %10s", 
+				"file", "bytes", "lines", "cells", "scan ms", "date ms", "value ms"));
+		for (Map.Entry<String, FileStatistics> e : files.entrySet()) {
+			FileStatistics s = e.getValue();
+			print(out, e.getKey(), s);
+			fileTotal.bytes += s.bytes;
+			fileTotal.lines += s.lines;
+			fileTotal.cells += s.cells;
+			fileTotal.scanTime += s.scanTime;
+			fileTotal.dateTime += s.dateTime;
+			fileTotal.valueTime += s.valueTime;
+		}
+		print(out, "total", fileTotal);
+		out.println();
+		SeriesStatistics seriesTotal = new SeriesStatistics();
+		out.println(String.format("%-30s %12s %10s %14s %10s", 
+				"series", "values", "set ms", "scanValue ms", "apply ms"));
+		for (Map.Entry<String, SeriesStatistics> e : series.entrySet()) {
+			SeriesStatistics s = e.getValue();
+			print(out, e.getKey(), s);
+			seriesTotal.values += s.values;
+			seriesTotal.writeTime += s.writeTime;
+			seriesTotal.scanTime += s.scanTime;
+			seriesTotal.applyTime += s.applyTime;
+		}
+		print(out, "total", seriesTotal);
+	}
+	
+	private void print(PrintStream out, String name, FileStatistics s) {
+		out.println(String.format("%-30s %12d %10d %12d %10d %10d %10d", 
+				name, s.bytes, s.lines, s.cells, ms(s.scanTime), ms(s.dateTime), ms(s.valueTime)));
+	}
+	
+	private void print(PrintStream out, String name, SeriesStatistics s) {
+		out.println(String.format("%-30s %12d %10d %14d %10d", 
+				name, s.values, ms(s.writeTime), ms(s.scanTime), ms(s.applyTime)));
+	}
+	
+	private long ms(long nanos) {
+		return nanos / 1000000;
+	}
+	
+}
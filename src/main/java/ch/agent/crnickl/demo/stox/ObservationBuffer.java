@@ -0,0 +1,271 @@
+/*
+ *   Copyright 2011-2017 Hauser Olsson GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.agent.crnickl.demo.stox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.agent.crnickl.T2DBException;
+import ch.agent.crnickl.api.UpdatableSeries;
+import ch.agent.t2.T2Exception;
+import ch.agent.t2.time.TimeDomain;
+
+/**
+ * An ObservationBuffer keeps numeric observations in primitive arrays until
+ * they are written to a series. Times are kept as offsets in the time domain
+ * of the series. An observation can also be kept as text, when the text is
+ * not a plain number and must be interpreted by the value scanner of the
+ * series.
+ * <p>
+ * There is no bulk write in the series API: {@link #write} passes each
+ * observation to the series, which only records it among its pending
+ * updates, in memory. Pending updates reach the database together, in a
+ * single call of the value access methods, when updates of the series are
+ * applied. Buffering saves the overhead of parsing and ordering values one
+ * by one, not round trips to the database.
+ * 
+ * @author Jean-Paul Vetterli
+ */
+public class ObservationBuffer {
+	
+	private int[] offset;
+	private double[] value;
+	private Map<Integer, String> text;
+	private int size;
+	private long scanTime;
+	
+	/**
+	 * Construct an empty buffer.
+	 * 
+	 * @param capacity the initial capacity
+	 */
+	public ObservationBuffer(int capacity) {
+		offset = new int[Math.max(capacity, 16)];
+		value = new double[offset.length];
+	}
+	
+	/**
+	 * Add a numeric observation.
+	 * 
+	 * @param offset a time domain offset
+	 * @param value a number
+	 */
+	public void add(int offset, double value) {
+		if (size == this.offset.length) {
+			this.offset = Arrays.copyOf(this.offset, 2 * size);
+			this.value = Arrays.copyOf(this.value, 2 * size);
+		}
+		this.offset[size] = offset;
+		this.value[size++] = value;
+	}
+	
+	/**
+	 * Add an observation as text.
+	 * 
+	 * @param offset a time domain offset
+	 * @param text a string
+	 */
+	public void add(int offset, String text) {
+		if (this.text == null)
+			this.text = new HashMap<Integer, String>();
+		this.text.put(size, text);
+		add(offset, Double.NaN);
+	}
+	
+	/**
+	 * Return the number of observations.
+	 * 
+	 * @return the number of observations
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Return the time domain offset of an observation.
+	 * 
+	 * @param i an index
+	 * @return a time domain offset
+	 */
+	public int getOffset(int i) {
+		return offset[i];
+	}
+	
+	/**
+	 * Return the value of an observation. The value is NaN for an
+	 * observation kept as text.
+	 * 
+	 * @param i an index
+	 * @return a number
+	 */
+	public double getValue(int i) {
+		return value[i];
+	}
+	
+	/**
+	 * Return the text of an observation or null if it was added as a number.
+	 * 
+	 * @param i an index
+	 * @return a string or null
+	 */
+	public String getText(int i) {
+		return text == null ? null : text.get(i);
+	}
+	
+	/**
+	 * Remove all observations.
+	 */
+	public void clear() {
+		size = 0;
+		text = null;
+	}
+	
+	/**
+	 * Add all observations of another buffer.
+	 * 
+	 * @param buffer a buffer
+	 */
+	public void addAll(ObservationBuffer buffer) {
+		for (int i = 0; i < buffer.size; i++) {
+			String s = buffer.getText(i);
+			if (s == null)
+				add(buffer.offset[i], buffer.value[i]);
+			else
+				add(buffer.offset[i], s);
+		}
+	}
+	
+	/**
+	 * Sort observations by time. The sort is stable: when there are duplicate
+	 * times, observations added later come after observations added earlier
+	 * and win when written to a series. Observations in strictly descending
+	 * order are simply reversed.
+	 */
+	public void sort() {
+		boolean ascending = true;
+		boolean descending = true;
+		for (int i = 1; i < size && (ascending || descending); i++) {
+			ascending &= offset[i - 1] <= offset[i];
+			descending &= offset[i - 1] > offset[i];
+		}
+		if (ascending)
+			return;
+		if (descending) {
+			reverse();
+			return;
+		}
+		// sort keys made of offset and original position
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++)
+			keys[i] = ((long) offset[i] << 32) | i;
+		Arrays.sort(keys);
+		int[] sortedOffset = new int[offset.length];
+		double[] sortedValue = new double[offset.length];
+		Map<Integer, String> sortedText = text == null ? null : new HashMap<Integer, String>();
+		for (int i = 0; i < size; i++) {
+			int j = (int) keys[i];
+			sortedOffset[i] = offset[j];
+			sortedValue[i] = value[j];
+			if (text != null && text.containsKey(j))
+				sortedText.put(i, text.get(j));
+		}
+		offset = sortedOffset;
+		value = sortedValue;
+		text = sortedText;
+	}
+	
+	private void reverse() {
+		for (int i = 0, j = size - 1; i < j; i++, j--) {
+			int o = offset[i];
+			offset[i] = offset[j];
+			offset[j] = o;
+			double v = value[i];
+			value[i] = value[j];
+			value[j] = v;
+		}
+		if (text != null) {
+			Map<Integer, String> reversed = new HashMap<Integer, String>();
+			for (Map.Entry<Integer, String> e : text.entrySet())
+				reversed.put(size - 1 - e.getKey(), e.getValue());
+			text = reversed;
+		}
+	}
+	
+	/**
+	 * Merge buffers into a single buffer sorted by time. When there are
+	 * duplicate times, buffers later in the list win.
+	 * 
+	 * @param buffers a list of buffers
+	 * @return a sorted buffer
+	 */
+	public static ObservationBuffer merge(List<ObservationBuffer> buffers) {
+		int total = 0;
+		for (ObservationBuffer buffer : buffers)
+			total += buffer.size;
+		ObservationBuffer merged = new ObservationBuffer(total);
+		for (ObservationBuffer buffer : buffers)
+			merged.addAll(buffer);
+		merged.sort();
+		return merged;
+	}
+	
+	/**
+	 * Pass all observations to a series, one at a time, as pending updates.
+	 * Text is passed to the value scanner of the series. Nothing is written
+	 * to the database before updates of the series are applied. The buffer
+	 * is not cleared. The time spent in the value scanner is available with
+	 * {@link #getScanTime()}.
+	 * 
+	 * @param series a series
+	 * @param domain the time domain of the offsets
+	 * @return the number of observations written
+	 * @throws T2DBException
+	 * @throws T2Exception
+	 */
+	public int write(UpdatableSeries<Double> series, TimeDomain domain) throws T2DBException, T2Exception {
+		scanTime = 0;
+		if (text == null) {
+			for (int i = 0; i < size; i++)
+				series.setValue(domain.timeFromOffset(offset[i]), value[i]);
+			return size;
+		}
+		for (int i = 0; i < size; i++) {
+			String s = text.get(i);
+			if (s == null)
+				series.setValue(domain.timeFromOffset(offset[i]), value[i]);
+			else {
+				long start = System.nanoTime();
+				series.scanValue(domain.timeFromOffset(offset[i]), s);
+				scanTime += System.nanoTime() - start;
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * Return the time spent in the value scanner of the series by the last
+	 * {@link #write}, in nanoseconds.
+	 * 
+	 * @return a number of nanoseconds
+	 */
+	public long getScanTime() {
+		return scanTime;
+	}
+	
+}
@@ -16,6 +16,17 @@
  */
 package ch.agent.crnickl.demo.stox;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 import ch.agent.core.KeyedException;
 import ch.agent.crnickl.T2DBException;
 import ch.agent.crnickl.api.Attribute;
@@ -40,16 +51,74 @@ public class StocksAndForexDataLoader {
 	private static final boolean SKIP_LINE_1 = true;
 	
 	/**
-	 * A visitor to read rows from spreadsheets into series.
+	 * The default number of rows buffered before observations are passed to
+	 * the series.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+	
+	/**
+	 * The maximum number of batches waiting to be written in pipelined mode.
 	 */
-	public class Visitor implements CSVFile.RowVisitor {
+	private static final int PIPELINE_CAPACITY = 16;
+	
+	/**
+	 * The number of milliseconds a parsing thread waits for room on the queue
+	 * before checking again if the pipeline was aborted.
+	 */
+	private static final long PIPELINE_WAIT = 100;
+	
+	/**
+	 * A visitor to read rows from spreadsheets into series. Values are parsed
+	 * directly from the cells into one {@link ObservationBuffer} per series.
+	 * Only cells which are not plain numbers, like placeholders for missing
+	 * values, are kept as strings for the value scanner of the series.
+	 * <p>
+	 * Buffers are passed to the series each time the batch size is reached
+	 * and when {@link #flush()} is called, which must be done after scanning
+	 * the last row. The series API takes observations one at a time, so each
+	 * observation is still set individually, but only as a pending update in
+	 * memory: the database is written once per series, when updates are
+	 * applied at the end of the file. See {@link ObservationBuffer}.
+	 * <p>
+	 * When scanning in parallel, each chunk of a file is scanned by a chunk
+	 * visitor which keeps all observations in its buffers. Buffers are merged
+	 * in time order and written to the series once all chunks have been
+	 * scanned.
+	 * <p>
+	 * Any number of columns can be loaded into series in a single pass. A
+	 * column is identified either by its offset or by its heading, which is
+	 * looked up in the first line.
+	 * <p>
+	 * In incremental mode, the last observation of each series is looked up
+	 * when the series is set. Rows up to the earliest of these observations
+	 * are skipped after parsing only their date, and values are only kept
+	 * for series which do not have them yet. Series which are still empty
+	 * while other series of the same file are not, like a volume series of
+	 * missing values, are not taken into account when skipping rows. Data
+	 * files are sorted by date, so when rows are found to be in descending
+	 * order, scanning stops at the first row skipped.
+	 * <p>
+	 * In pipelined mode, buffers are not written by the visitor but put on a
+	 * queue, to be written by the thread which owns the database. When the
+	 * pipeline is aborted, the visitor stops at the next row.
+	 */
+	public class Visitor implements CSVFile.CellVisitor {
 
 		private Range range;
 		private int dateColumnOffset;
 		private int[] seriesColumnOffset;
+		private String[] seriesHeading;
+		private boolean headingsResolved;
 		private UpdatableSeries<Double>[] series;
 		private TimeDomain timeDomain;
 		private int columnLength;
+		private ObservationBuffer[] buffers;
+		private int batchSize;
+		private int rows;
+		private int[] since;
+		private int minSince;
+		private int previous;
+		private BlockingQueue<Batch> queue;
 		
 		/**
 		 * Construct an object to process each row of the data file.
@@ -68,16 +137,86 @@ public class StocksAndForexDataLoader {
 				timeDomain = range.getTimeDomain();
 			this.dateColumnOffset = dateColumnOffset;
 			seriesColumnOffset = new int[seriesCount];
+			seriesHeading = new String[seriesCount];
 			series = new UpdatableSeries[seriesCount];
 			columnLength = -1;
+			batchSize = StocksAndForexDataLoader.this.batchSize;
+			buffers = makeBuffers(seriesCount, batchSize);
+			if (incremental) {
+				since = new int[seriesCount];
+				Arrays.fill(since, Integer.MAX_VALUE);
+				minSince = Integer.MAX_VALUE;
+			}
+			previous = Integer.MIN_VALUE;
+		}
+		
+		/**
+		 * Construct a chunk visitor with the same set up as another visitor.
+		 * 
+		 * @param visitor a visitor with all series set up
+		 */
+		private Visitor(Visitor visitor) {
+			this.range = visitor.range;
+			this.timeDomain = visitor.timeDomain;
+			this.dateColumnOffset = visitor.dateColumnOffset;
+			this.seriesColumnOffset = visitor.seriesColumnOffset;
+			this.seriesHeading = visitor.seriesHeading;
+			this.headingsResolved = visitor.headingsResolved;
+			this.series = visitor.series;
+			this.columnLength = visitor.columnLength;
+			batchSize = 0;
+			buffers = makeBuffers(series.length, 0);
+			this.since = visitor.since;
+			this.minSince = visitor.minSince;
+			previous = Integer.MIN_VALUE;
+			this.queue = visitor.queue;
 		}
 
 		@Override
-		public void visit(int line, String... column) throws Exception {
-			if (SKIP_LINE_1 && line == 1)
-				return;
+		public boolean visit(int line, CSVFile.Cells cells) throws Exception {
+			if (SKIP_LINE_1 && line == 1) {
+				resolveHeadings(cells);
+				return true;
+			}
+			if (queue != null && aborted)
+				throw K.LOAD_INTERRUPTED_ERR.exception();
+			checkColumns(line, cells);
+			TimeIndex t = cells.getTime(dateColumnOffset, timeDomain);
+			int time = t.asOffset();
+			if (since != null && time <= minSince) {
+				// already loaded: stop if rows are in descending order
+				boolean descending = time < previous;
+				previous = time;
+				return !descending;
+			}
+			previous = time;
+			if (range == null || range.isInRange(t)) { 
+				for (int i = 0; i < series.length; i++) {
+					if (since != null && time <= since[i])
+						continue;
+					int offset = seriesColumnOffset[i];
+					double value = cells.getDouble(offset);
+					if (Double.isNaN(value))
+						buffers[i].add(time, cells.getString(offset));
+					else
+						buffers[i].add(time, value);
+				}
+				if (batchSize > 0 && ++rows >= batchSize)
+					flush();
+			}
+			return true;
+		}
+		
+		/**
+		 * Check the number of cells in a row. The first row checked sets the
+		 * number of columns expected in all other rows.
+		 * 
+		 * @param line the line number
+		 * @param cells the cells of the row
+		 */
+		private void checkColumns(int line, CSVFile.Cells cells) {
 			if (columnLength < 0) {
-				columnLength = column.length;
+				columnLength = cells.size();
 				if (dateColumnOffset >= columnLength)
 					throw new IllegalStateException(K.DATE_COL_ERR.val());
 				for (int i = 0; i < series.length; i++) {
@@ -85,16 +224,8 @@ public class StocksAndForexDataLoader {
 						throw new IllegalStateException(K.SER_COL_ERR.val(i, seriesColumnOffset[i]));
 				}
 			} else {
-				if (column.length != columnLength)
-					throw new RuntimeException(K.COL_COUNT_ERR.val(column.length, columnLength, line));
-			}
-			TimeIndex t = timeDomain.time(column[dateColumnOffset]);
-			if (range == null || range.isInRange(t)) { 
-				for (int i = 0; i < series.length; i++) {
-					if (seriesColumnOffset[i] >= columnLength)
-						throw new IllegalStateException(K.SER_COL_ERR.val(i, seriesColumnOffset[i]));
-					series[i].scanValue(t, column[seriesColumnOffset[i]]);
-				}
+				if (cells.size() != columnLength)
+					throw new RuntimeException(K.COL_COUNT_ERR.val(cells.size(), columnLength, line));
 			}
 		}
 		
@@ -107,25 +238,200 @@ public class StocksAndForexDataLoader {
 		 * @throws KeyedException
 		 */
 		public void setSeries(int index, int offset, UpdatableSeries<Double> series) throws KeyedException {
-			if (columnLength >= 0)
-				throw new IllegalStateException(K.TOO_LATE_ERR.val());
 			if (offset < 0)
 				throw new IllegalArgumentException(K.SER_COL_NEG_ERR.val(index));
+			setSeries(index, series);
+			this.seriesColumnOffset[index] = offset;
+			this.seriesHeading[index] = null;
+		}
+		
+		/**
+		 * Sets a series to be loaded from the column with the given heading.
+		 * Headings are looked up in the first line, ignoring leading and
+		 * trailing blanks.
+		 * 
+		 * @param index a number
+		 * @param heading a column heading
+		 * @param series a series
+		 * @throws KeyedException
+		 */
+		public void setSeries(int index, String heading, UpdatableSeries<Double> series) throws KeyedException {
+			setSeries(index, series);
+			this.seriesColumnOffset[index] = -1;
+			this.seriesHeading[index] = heading.trim();
+			headingsResolved = false;
+		}
+		
+		/**
+		 * Tell if there are column headings to look up.
+		 * 
+		 * @return true if column headings must be looked up
+		 */
+		private boolean needsHeadings() {
+			if (!headingsResolved) {
+				for (String heading : seriesHeading) {
+					if (heading != null)
+						return true;
+				}
+			}
+			return false;
+		}
+		
+		/**
+		 * Look up column headings in the cells of the first line.
+		 * 
+		 * @param cells the cells of the first line
+		 * @throws KeyedException
+		 */
+		private void resolveHeadings(CSVFile.Cells cells) throws KeyedException {
+			if (!needsHeadings())
+				return;
+			for (int i = 0; i < seriesHeading.length; i++) {
+				if (seriesHeading[i] == null)
+					continue;
+				int offset = -1;
+				for (int j = 0; j < cells.size() && offset < 0; j++) {
+					if (seriesHeading[i].equals(cells.getString(j).trim()))
+						offset = j;
+				}
+				if (offset < 0)
+					throw K.HEADING_ERR.exception(seriesHeading[i]);
+				seriesColumnOffset[i] = offset;
+			}
+			headingsResolved = true;
+		}
+		
+		private void setSeries(int index, UpdatableSeries<Double> series) throws KeyedException {
+			if (columnLength >= 0)
+				throw new IllegalStateException(K.TOO_LATE_ERR.val());
 			if (index < 0 || index >= seriesColumnOffset.length)
 				throw new IndexOutOfBoundsException(K.SER_NUM_ERR.val(index));
-			this.seriesColumnOffset[index] = offset;
 			this.series[index] = series.edit();
 			if (timeDomain == null)
 				timeDomain = series.getTimeDomain();
 			else
 				if (!timeDomain.equals(series.getTimeDomain()))
 					throw K.SER_DOMAIN_ERR.exception(timeDomain.getLabel());
+			if (since != null) {
+				Range loaded = series.getRange();
+				since[index] = loaded.isEmpty() ? Integer.MIN_VALUE : loaded.getLast().asOffset();
+				// empty series are ignored, unless all are empty
+				minSince = Integer.MAX_VALUE;
+				for (int s : since) {
+					if (s != Integer.MIN_VALUE)
+						minSince = Math.min(minSince, s);
+				}
+				if (minSince == Integer.MAX_VALUE)
+					minSince = Integer.MIN_VALUE;
+			}
+		}
+		
+		/**
+		 * Pass buffered observations to the series, in time order, and 
+		 * clear the buffers. In pipelined mode, the buffers are put on the
+		 * queue and replaced with new buffers.
+		 * 
+		 * @throws KeyedException
+		 */
+		public void flush() throws KeyedException {
+			if (queue == null) {
+				write(buffers);
+				for (int i = 0; i < buffers.length; i++)
+					buffers[i].clear();
+			} else {
+				put(new Batch(this, buffers, null));
+				buffers = makeBuffers(buffers.length, batchSize);
+			}
+			rows = 0;
+		}
+		
+		/**
+		 * Pass buffers to the series, in time order, as pending updates.
+		 * 
+		 * @param buffers an array of buffers, one per series
+		 * @throws KeyedException
+		 */
+		private void write(ObservationBuffer[] buffers) throws KeyedException {
+			for (int i = 0; i < buffers.length; i++) {
+				buffers[i].sort();
+				long start = System.nanoTime();
+				int count = buffers[i].write(series[i], timeDomain);
+				if (listener != null)
+					listener.written(series[i].getName(true), count, System.nanoTime() - start, buffers[i].getScanTime());
+			}
+		}
+		
+		/**
+		 * Apply updates to all series.
+		 * 
+		 * @throws KeyedException
+		 */
+		private void applyUpdates() throws KeyedException {
+			for (int i = 0; i < series.length; i++)
+				StocksAndForexDataLoader.this.applyUpdates(series[i]);
+		}
+		
+		private void put(Batch batch) throws KeyedException {
+			if (!offer(queue, batch))
+				throw K.LOAD_INTERRUPTED_ERR.exception();
+		}
+		
+		private ObservationBuffer[] makeBuffers(int count, int batchSize) {
+			ObservationBuffer[] buffers = new ObservationBuffer[count];
+			for (int i = 0; i < count; i++)
+				buffers[i] = new ObservationBuffer(batchSize > 0 ? batchSize : 1024);
+			return buffers;
+		}
+		
+		/**
+		 * Merge the buffers of chunk visitors in time order and write them to
+		 * the series.
+		 * 
+		 * @param chunks a list of chunk visitors in chunk order
+		 * @throws KeyedException
+		 */
+		private void merge(List<Visitor> chunks) throws KeyedException {
+			List<ObservationBuffer> partial = new ArrayList<ObservationBuffer>(chunks.size());
+			ObservationBuffer[] merged = new ObservationBuffer[series.length];
+			for (int i = 0; i < series.length; i++) {
+				partial.clear();
+				for (Visitor chunk : chunks)
+					partial.add(chunk.buffers[i]);
+				merged[i] = ObservationBuffer.merge(partial);
+			}
+			if (queue == null)
+				write(merged);
+			else
+				put(new Batch(this, merged, null));
 		}
 		
 	}
 	
+	/**
+	 * A batch of observations passed from a parsing thread to the writing
+	 * thread. A batch without buffers signals the end of a file, or a failure
+	 * when it has an exception.
+	 */
+	private static class Batch {
+		private final Visitor visitor;
+		private final ObservationBuffer[] buffers;
+		private final KeyedException exception;
+
+		private Batch(Visitor visitor, ObservationBuffer[] buffers, KeyedException exception) {
+			this.visitor = visitor;
+			this.buffers = buffers;
+			this.exception = exception;
+		}
+	}
+	
 	private Database db;
 	private UpdatableChronicle fbi, kgb, usdfum;
+	private int threads;
+	private int batchSize;
+	private boolean incremental;
+	private boolean pipelined;
+	private LoadListener listener;
+	private volatile boolean aborted;
 	
 	/**
 	 * Construct the demo data loader.
@@ -135,6 +441,71 @@ public class StocksAndForexDataLoader {
 	public StocksAndForexDataLoader(Database db) {
 		super();
 		this.db = db;
+		threads = 1;
+		batchSize = DEFAULT_BATCH_SIZE;
+	}
+	
+	/**
+	 * Set the number of rows buffered by a {@link Visitor} before their 
+	 * observations are passed to the series, as pending updates which are
+	 * written to the database when updates are applied. A value of 0 means that all
+	 * observations in a file are buffered. This setting applies to visitors
+	 * constructed afterwards. The default is {@link #DEFAULT_BATCH_SIZE}.
+	 * 
+	 * @param batchSize a non-negative number
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 0)
+			throw new IllegalArgumentException(K.BATCH_SIZE_NEG_ERR.val(batchSize));
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Set the incremental mode. In incremental mode, only observations more
+	 * recent than the last observation of a series are loaded into the
+	 * series. This setting applies to visitors constructed afterwards. The
+	 * default is false.
+	 * 
+	 * @param incremental if true, set the incremental mode
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+	
+	/**
+	 * Set the pipelined mode. In pipelined mode, data files are parsed
+	 * concurrently, each on its own thread, while observations are written
+	 * to the database on the thread which called {@link #loadData(Range)}.
+	 * Parsed observations are passed to the writer through a bounded queue.
+	 * The default is false.
+	 * 
+	 * @param pipelined if true, set the pipelined mode
+	 */
+	public void setPipelined(boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+	
+	/**
+	 * Set a listener to receive measurements about files scanned and series
+	 * updated, or remove it. See {@link LoadStatistics}.
+	 * 
+	 * @param listener a listener or null
+	 */
+	public void setListener(LoadListener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Set the number of threads used to parse a file. With more than one
+	 * thread, large files are split into chunks parsed in parallel. The
+	 * default is 1.
+	 * 
+	 * @param threads a positive number
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException(K.THREADS_ERR.val(threads));
+		this.threads = threads;
 	}
 
 	/**
@@ -187,58 +558,214 @@ public class StocksAndForexDataLoader {
 		if (fbi == null)
 			createChronicles();
 		
-		// load price and volume data for FBI
-		CSVFile file = new CSVFile(",");
-		Visitor visitor = new Visitor(range, 0, 2);
-		UpdatableSeries<Double> price = fbi.updateSeries(K.PRICE_SER.val());
-		if (price == null)
-			price = fbi.createSeries(K.PRICE_SER.val());
-		visitor.setSeries(0, 4, price);
-		UpdatableSeries<Double> volume = fbi.updateSeries(K.VOLUME_SER.val());
-		if (volume == null)
-			volume = fbi.createSeries(K.VOLUME_SER.val());
-		visitor.setSeries(1, 5, volume);
-		file.scan("data/FBI.csv", visitor);
-		price.applyUpdates();
-		volume.applyUpdates();
+		// set up visitors for all files, in the order of loading
+		Map<String, Visitor> files = new LinkedHashMap<String, Visitor>();
+		
+		// load prices and volume data for FBI in one pass
+		Visitor visitor = new Visitor(range, 0, 6);
+		visitor.setSeries(0, "Close", series(fbi, K.PRICE_SER.val()));
+		visitor.setSeries(1, "Volume", series(fbi, K.VOLUME_SER.val()));
+		visitor.setSeries(2, "Open", series(fbi, K.OPEN_SER.val()));
+		visitor.setSeries(3, "High", series(fbi, K.HIGH_SER.val()));
+		visitor.setSeries(4, "Low", series(fbi, K.LOW_SER.val()));
+		visitor.setSeries(5, "Adj Close", series(fbi, K.ADJ_CLOSE_SER.val()));
+		files.put("data/FBI.csv", visitor);
 
 		// load splits info for FBI
 		visitor = new Visitor(range, 0, 1);
-		UpdatableSeries<Double> splits = fbi.updateSeries(K.SPLITS_SER.val());
-		if (splits == null)
-			splits = fbi.createSeries(K.SPLITS_SER.val());
-		visitor.setSeries(0, 1, splits);
-		file.scan("data/FBISplits.csv", visitor);
-		splits.applyUpdates();
+		visitor.setSeries(0, "Ratio", series(fbi, K.SPLITS_SER.val()));
+		files.put("data/FBISplits.csv", visitor);
 	
 		// load price data for KGB
 		visitor = new Visitor(range, 0, 2);
-		price = kgb.updateSeries(K.PRICE_SER.val());
-		if (price == null)
-			price = kgb.createSeries(K.PRICE_SER.val());
-		visitor.setSeries(0, 4, price);
+		visitor.setSeries(0, "Close", series(kgb, K.PRICE_SER.val()));
 		/* Note: volume data consist only of "missing values", so volume series 
 		 * will exist with an empty range. */
-		volume = kgb.updateSeries(K.VOLUME_SER.val());
-		if (volume == null)
-			volume = kgb.createSeries(K.VOLUME_SER.val());
-		visitor.setSeries(1, 5, volume);
-		file.scan("data/KGB.csv", visitor);
-		price.applyUpdates();
-		volume.applyUpdates();
+		visitor.setSeries(1, "Volume", series(kgb, K.VOLUME_SER.val()));
+		files.put("data/KGB.csv", visitor);
+		
+		if (pipelined)
+			loadInPipeline(files);
+		else {
+			for (Map.Entry<String, Visitor> entry : files.entrySet()) {
+				scan(new CSVFile(","), entry.getKey(), entry.getValue());
+				entry.getValue().applyUpdates();
+			}
+		}
 		
 		// exchange rates will be invented
-		UpdatableSeries<Double> rate = usdfum.updateSeries(K.RATE_SER.val());
-		if (rate == null)
-			rate = usdfum.createSeries(K.RATE_SER.val());
+		UpdatableSeries<Double> rate = series(usdfum, K.RATE_SER.val());
 		Range generationRange = new Range(Workday.DOMAIN, "1990-01-01", "2010-12-31", Adjustment.DOWN);
 		double value = 0.6;
 		double dailyIncrease = 1.001;
+		long start = System.nanoTime();
 		for (TimeIndex t : generationRange) {
 			value = value * dailyIncrease;
 			rate.setValue(t, value);
 		}
-		rate.applyUpdates();
+		if (listener != null)
+			listener.written(rate.getName(true), (int) generationRange.getSize(), System.nanoTime() - start, 0);
+		applyUpdates(rate);
+	}
+
+	/**
+	 * Apply updates to a series and report the time taken to the listener.
+	 * 
+	 * @param series a series
+	 * @throws T2DBException
+	 */
+	private void applyUpdates(UpdatableSeries<Double> series) throws T2DBException {
+		long start = System.nanoTime();
+		series.applyUpdates();
+		if (listener != null)
+			listener.applied(series.getName(true), System.nanoTime() - start);
+	}
+	
+	/**
+	 * Return a series of a chronicle, creating it if necessary.
+	 * 
+	 * @param chronicle a chronicle
+	 * @param name the name of the series
+	 * @return a series
+	 * @throws T2DBException
+	 */
+	private UpdatableSeries<Double> series(UpdatableChronicle chronicle, String name) throws T2DBException {
+		UpdatableSeries<Double> series = chronicle.updateSeries(name);
+		if (series == null)
+			series = chronicle.createSeries(name);
+		return series;
+	}
+	
+	/**
+	 * Load files in a pipeline. Each file is parsed on its own thread and
+	 * batches of observations are written to the series on the current
+	 * thread, while parsing goes on. Updates to the series of a file are
+	 * applied as soon as all observations of the file have been written.
+	 * 
+	 * @param files a map of visitors keyed by resource name
+	 * @throws KeyedException
+	 */
+	private void loadInPipeline(Map<String, Visitor> files) throws KeyedException {
+		final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(PIPELINE_CAPACITY);
+		aborted = false;
+		ExecutorService pool = Executors.newFixedThreadPool(files.size());
+		try {
+			for (Map.Entry<String, Visitor> entry : files.entrySet()) {
+				final String resource = entry.getKey();
+				final Visitor visitor = entry.getValue();
+				visitor.queue = queue;
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						KeyedException exception = null;
+						try {
+							scan(new CSVFile(","), resource, visitor);
+						} catch (KeyedException e) {
+							exception = e;
+						} catch (Throwable e) {
+							exception = K.FILE_READ_ERR.exception(e, resource);
+						}
+						// fails only if the writer has given up
+						offer(queue, new Batch(visitor, null, exception));
+					}
+				});
+			}
+			int pending = files.size();
+			while (pending > 0) {
+				Batch batch = queue.take();
+				if (batch.exception != null)
+					throw batch.exception;
+				if (batch.buffers == null) {
+					batch.visitor.applyUpdates();
+					pending--;
+				} else
+					batch.visitor.write(batch.buffers);
+			}
+		} catch (InterruptedException e) {
+			throw K.LOAD_INTERRUPTED_ERR.exception(e);
+		} finally {
+			// stop parsers still running and wait until they are done
+			aborted = true;
+			pool.shutdownNow();
+			try {
+				while (!pool.awaitTermination(PIPELINE_WAIT, TimeUnit.MILLISECONDS)) {
+					// parsers check the aborted flag on each row
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Put a batch on the queue of a pipeline, waiting for room as long as
+	 * the pipeline is not aborted.
+	 * 
+	 * @param queue the queue
+	 * @param batch a batch
+	 * @return true if the batch was put on the queue
+	 */
+	private boolean offer(BlockingQueue<Batch> queue, Batch batch) {
+		try {
+			while (!aborted) {
+				if (queue.offer(batch, PIPELINE_WAIT, TimeUnit.MILLISECONDS))
+					return true;
+			}
+		} catch (InterruptedException e) {
+			// aborted
+		}
+		return false;
+	}
+	
+	/**
+	 * Scan a resource with a visitor, in parallel if more than one thread 
+	 * is available. When the visitor has a range, rows outside the range are
+	 * skipped by the scanner, which stops early because data files are
+	 * sorted by date.
+	 * 
+	 * @param file a CSV file
+	 * @param resource the name of a resource on the class path or of a file in the file system
+	 * @param visitor a visitor with all series set up
+	 * @throws KeyedException
+	 */
+	private void scan(CSVFile file, String resource, final Visitor visitor) throws KeyedException {
+		if (threads >= 2) {
+			// look up headings and the number of columns before chunks are 
+			// scanned, in the first two lines, without a date filter which 
+			// could skip many rows, and without reporting to the listener
+			file.clearDateFilter();
+			file.setListener(null);
+			file.scan(resource, new CSVFile.CellVisitor() {
+				@Override
+				public boolean visit(int line, CSVFile.Cells cells) throws Exception {
+					if (SKIP_LINE_1 && line == 1) {
+						visitor.resolveHeadings(cells);
+						return true;
+					}
+					visitor.checkColumns(line, cells);
+					return false;
+				}
+			});
+		}
+		if (visitor.range != null && !visitor.range.isEmpty()) {
+			int first = IsoDateParser.key(visitor.range.getFirst().toString());
+			int last = IsoDateParser.key(visitor.range.getLast().toString());
+			if (first >= 0 && last >= 0)
+				file.setDateFilter(visitor.dateColumnOffset, first, last, true);
+		}
+		file.setListener(listener);
+		if (threads < 2) {
+			file.scan(resource, visitor);
+			visitor.flush();
+		} else {
+			List<Visitor> chunks = file.scanInParallel(resource, threads, new CSVFile.CellVisitorFactory<Visitor>() {
+				@Override
+				public Visitor create(int chunk) {
+					return new Visitor(visitor);
+				}
+			});
+			visitor.merge(chunks);
+		}
 	}
 
 }
@@ -134,13 +134,32 @@ public class StocksAndForexDemo {
 	 * <li>forex.fumusd
 	 * </ul> 
 	 * Before using this method, create the schema with {@link #setUpSchema()}.
+	 * The optional parameter <em>demo.threads</em> sets the number of threads
+	 * used to parse data files. When the optional parameter
+	 * <em>demo.incremental</em> is true, only observations more recent than
+	 * those already in the database are loaded. When the optional parameter
+	 * <em>demo.pipeline</em> is true, data files are parsed concurrently
+	 * while observations are written to the database. When the optional 
+	 * parameter <em>demo.statistics</em> is true, a report with the
+	 * measurements of the load is printed.
 	 * 
 	 * @throws Exception
 	 */
 	public void loadData() throws Exception {
 		StocksAndForexDataLoader loader = new StocksAndForexDataLoader(db);
+		if (parameters.get(K.THREADS_PARAM.val()) != null)
+			loader.setThreads(asInteger(K.THREADS_PARAM.val()));
+		loader.setIncremental(Boolean.parseBoolean(parameters.get(K.INCREMENTAL_PARAM.val())));
+		loader.setPipelined(Boolean.parseBoolean(parameters.get(K.PIPELINE_PARAM.val())));
+		LoadStatistics statistics = null;
+		if (Boolean.parseBoolean(parameters.get(K.STATISTICS_PARAM.val()))) {
+			statistics = new LoadStatistics();
+			loader.setListener(statistics);
+		}
 		loader.createChronicles();
 		loader.loadData(range);
+		if (statistics != null)
+			statistics.report(System.out);
 	}
 	
 	/**
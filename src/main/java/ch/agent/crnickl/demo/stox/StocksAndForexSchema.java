@@ -176,12 +176,16 @@ public class StocksAndForexSchema {
 	}
 	
 	/**
-	 * The Stocks schema defines 3 series and 2 attributes for Stocks chronicles.
+	 * The Stocks schema defines 7 series and 2 attributes for Stocks chronicles.
 	 * The series are:
 	 * <ul>
 	 * <li>price
 	 * <li>volume
 	 * <li>split
+	 * <li>open
+	 * <li>high
+	 * <li>low
+	 * <li>adjclose
 	 * </ul>
 	 * All series are <em>numeric</em> with data on <em>working days</em>. 
 	 * <p>
@@ -231,8 +235,24 @@ public class StocksAndForexSchema {
 		schema.setSeriesSparsity(3, true);
 		// no series unit
 		
+		addPriceSeries(schema, 4, K.OPEN_SER.val(), "open price");
+		addPriceSeries(schema, 5, K.HIGH_SER.val(), "high price");
+		addPriceSeries(schema, 6, K.LOW_SER.val(), "low price");
+		addPriceSeries(schema, 7, K.ADJ_CLOSE_SER.val(), "close price adjusted for splits and dividends");
+		
 		schema.applyUpdates();
 	}
+	
+	private void addPriceSeries(UpdatableSchema schema, int number, String name, String description) throws T2DBException {
+		schema.addSeries(number);
+		schema.setSeriesName(number, name);
+		schema.setSeriesDescription(number, description);
+		schema.setSeriesType(number, db.getValueType(K.NUM_TYPE.val()));
+		schema.setSeriesTimeDomain(number, Workday.DOMAIN);
+		schema.addAttribute(number, 5);
+		schema.setAttributeProperty(number, 5, db.getProperty(K.UNIT_PROP.val(), true));
+		schema.setAttributeDefault(number, 5, K.UNIT_VALUE_CURRENCY.val());
+	}
  	
 	/**
 	 * The Forex schema defines 1 series and 2 attributes for Forex chronicles.
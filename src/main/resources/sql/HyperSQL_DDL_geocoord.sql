@@ -13,3 +13,57 @@ create table value_geocoord (
   constraint valgeo2 foreign key (series) references series (id)
  );
 
+-- chunks of values, used by ChunkedAccessMethodsForGeoCoord
+-- data: 64 bit mask of slots with a value, then x, y, and z of these slots
+
+create table value_geocoord_chunk (
+  series int not null,
+  chunk int not null,
+  data varbinary(1544) not null,
+  constraint valgeoch1 primary key (series, chunk),
+  constraint valgeoch2 foreign key (series) references series (id)
+ );
+
+-- summary of values, maintained by AccessMethodsForGeoCoord
+-- for databases created without it, see HyperSQL_DDL_geocoord_summary.sql
+
+create table value_geocoord_summary (
+  series int not null,
+  first_date int not null,
+  last_date int not null,
+  size int not null,
+  first_x double not null,
+  first_y double not null,
+  first_z double not null,
+  last_x double not null,
+  last_y double not null,
+  last_z double not null,
+  min_x double not null,
+  max_x double not null,
+  min_y double not null,
+  max_y double not null,
+  min_z double not null,
+  max_z double not null,
+  constraint valgeosum1 primary key (series),
+  constraint valgeosum2 foreign key (series) references series (id)
+ );
+
+
+-- bounding boxes of chunks of 64 dates, maintained by AccessMethodsForGeoCoord
+-- for databases created without it, see HyperSQL_DDL_geocoord_box.sql
+
+create table value_geocoord_box (
+  series int not null,
+  chunk int not null,
+  first_date int not null,
+  last_date int not null,
+  size int not null,
+  min_x double not null,
+  max_x double not null,
+  min_y double not null,
+  max_y double not null,
+  min_z double not null,
+  max_z double not null,
+  constraint valgeobox1 primary key (series, chunk),
+  constraint valgeobox2 foreign key (series) references series (id)
+ );
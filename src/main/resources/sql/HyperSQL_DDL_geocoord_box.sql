@@ -0,0 +1,29 @@
+-- UPGRADE TABLES FOR THE BOUNDING BOXES OF GEOCOORD VALUES
+-- Idiom: HSQL
+-- Only for databases created before table "value_geocoord_box" was
+-- added to HyperSQL_DDL_geocoord.sql. Creates the table and computes the
+-- boxes of all series with values. Databases without table 
+-- "value_geocoord_summary" must first be upgraded with 
+-- HyperSQL_DDL_geocoord_summary.sql.
+
+create table value_geocoord_box (
+  series int not null,
+  chunk int not null,
+  first_date int not null,
+  last_date int not null,
+  size int not null,
+  min_x double not null,
+  max_x double not null,
+  min_y double not null,
+  max_y double not null,
+  min_z double not null,
+  max_z double not null,
+  constraint valgeobox1 primary key (series, chunk),
+  constraint valgeobox2 foreign key (series) references series (id)
+ );
+
+insert into value_geocoord_box 
+  (series, chunk, first_date, last_date, size, min_x, max_x, min_y, max_y, min_z, max_z)
+  select series, cast(floor(date / 64e0) as int), min(date), max(date), count(*),
+  min(x), max(x), min(y), max(y), min(z), max(z)
+  from value_geocoord group by series, cast(floor(date / 64e0) as int);
@@ -0,0 +1,38 @@
+-- UPGRADE TABLES FOR THE SUMMARY OF GEOCOORD VALUES
+-- Idiom: HSQL
+-- Only for databases created before table "value_geocoord_summary" was
+-- added to HyperSQL_DDL_geocoord.sql. Creates the table and computes the
+-- summary of all series with values. Then upgrade with
+-- HyperSQL_DDL_geocoord_box.sql.
+
+create table value_geocoord_summary (
+  series int not null,
+  first_date int not null,
+  last_date int not null,
+  size int not null,
+  first_x double not null,
+  first_y double not null,
+  first_z double not null,
+  last_x double not null,
+  last_y double not null,
+  last_z double not null,
+  min_x double not null,
+  max_x double not null,
+  min_y double not null,
+  max_y double not null,
+  min_z double not null,
+  max_z double not null,
+  constraint valgeosum1 primary key (series),
+  constraint valgeosum2 foreign key (series) references series (id)
+ );
+
+insert into value_geocoord_summary 
+  (series, first_date, last_date, size, first_x, first_y, first_z, last_x, last_y, last_z,
+  min_x, max_x, min_y, max_y, min_z, max_z)
+  select a.series, a.first_date, a.last_date, a.size, f.x, f.y, f.z, l.x, l.y, l.z,
+  a.min_x, a.max_x, a.min_y, a.max_y, a.min_z, a.max_z from
+  (select series, min(date) as first_date, max(date) as last_date, count(*) as size,
+  min(x) as min_x, max(x) as max_x, min(y) as min_y, max(y) as max_y, min(z) as min_z, max(z) as max_z
+  from value_geocoord group by series) as a
+  join value_geocoord f on f.series = a.series and f.date = a.first_date
+  join value_geocoord l on l.series = a.series and l.date = a.last_date;